@@ -3,9 +3,11 @@ package tl.cordova.google.mobile.vision.scanner;
 // ----------------------------------------------------------------------------
 // |  Android Imports
 // ----------------------------------------------------------------------------
-import android.content.Context;
+import android.Manifest;
+import android.app.Activity;
 import android.content.Intent;
-import android.os.Bundle;
+import android.content.pm.PackageManager;
+import android.graphics.Color;
 import android.util.Log;
 
 // ----------------------------------------------------------------------------
@@ -22,17 +24,13 @@ import org.apache.cordova.PluginResult;
 // ----------------------------------------------------------------------------
 import org.json.JSONArray;
 import org.json.JSONException;
-import com.google.android.gms.common.api.CommonStatusCodes;
+import org.json.JSONObject;
 import com.google.android.gms.vision.barcode.Barcode;
 
-// ----------------------------------------------------------------------------
-// |  Java Imports
-// ----------------------------------------------------------------------------
-import javax.security.auth.callback.Callback;
-
 // ----------------------------------------------------------------------------
 // |  Our Imports
 // ----------------------------------------------------------------------------
+import tl.cordova.google.mobile.vision.scanner.ui.camera.PipelineMetrics;
 
 public class AndroidScanner extends CordovaPlugin {
   // ----------------------------------------------------------------------------
@@ -47,60 +45,114 @@ public class AndroidScanner extends CordovaPlugin {
   // ----------------------------------------------------------------------------
   // | Private Properties
   // ----------------------------------------------------------------------------
-  private static final int RC_BARCODE_CAPTURE = 9001;
+  private static final int RC_CAMERA_PERMISSION = 9002;
+
+  private volatile int    _ScanId          = -1;
+  private EmbeddedScanner _EmbeddedScanner     ;
+  private int             _PendingScanId   = -1;
+  private Runnable        _PendingShow         ;
 
   // ----------------------------------------------------------------------------
   // |  Public Functions
   // ----------------------------------------------------------------------------  
   public void initialize(CordovaInterface cordova, CordovaWebView webView) {
     super.initialize(cordova, webView);
+    DetectorWarmup.start(cordova.getActivity().getApplicationContext());
   }
 
   @Override
   public boolean execute(String p_Action, JSONArray p_Args, CallbackContext p_CallbackContext) throws JSONException {
-    Context context = cordova.getActivity().getApplicationContext();
-    CallbackContext = p_CallbackContext;
-
     if (p_Action.equals("startScan")) {
-      Thread thread = new Thread(new OneShotTask(context, p_Args));
-      thread.start();
+      CallbackContext = p_CallbackContext;
+      openScan(p_Args, p_CallbackContext);
       return true;
     }
 
-    return false;
-  }
+    if (p_Action.equals("stopScan")) {
+      ScanResultChannel.stop(_ScanId, "STOPPED");
+      p_CallbackContext.success();
+      return true;
+    }
 
-  @Override
-  public void onActivityResult(int p_RequestCode, int p_ResultCode, Intent p_Data) {
-    super.onActivityResult(p_RequestCode, p_ResultCode, p_Data);
-
-    if (p_RequestCode == RC_BARCODE_CAPTURE) {
-      if (p_ResultCode == CommonStatusCodes.SUCCESS) {
-        Intent d = new Intent();
-        if (p_Data != null) {
-          Barcode barcode = p_Data.getParcelableExtra(BarcodeCaptureActivity.BarcodeObject);
-          JSONArray result = new JSONArray();
-          result.put(barcode.rawValue);
-          result.put("");
-          result.put("");
-          CallbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, result));
-
-          Log.d("AndroidScanner", "Barcode read: " + barcode.displayValue);
+    if (p_Action.equals("detectorReady")) {
+      final CallbackContext callbackContext = p_CallbackContext;
+      DetectorWarmup.whenReady(new DetectorWarmup.Listener() {
+        @Override
+        public void onReady(boolean p_Operational) {
+          if (p_Operational) {
+            callbackContext.success();
+          } else {
+            callbackContext.error("Barcode detector dependencies are not available yet.");
+          }
         }
+      });
+      return true;
+    }
+
+    if (p_Action.equals("getScannerMetrics")) {
+      PipelineMetrics metrics = PipelineMetrics.getCurrent();
+      if (metrics == null) {
+        p_CallbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, (String) null));
       } else {
-        String err = p_Data.getParcelableExtra("err");
-        JSONArray result = new JSONArray();
-        result.put(err);
-        result.put("");
-        result.put("");
-        CallbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, result));
+        JSONObject json = metrics.toJSON();
+        json.put("timeToFirstFrameMs", ScanResultChannel.getTimeToFirstFrameNanos() / 1e6);
+        json.put("timeToResultMs", ScanResultChannel.getTimeToResultNanos() / 1e6);
+
+        BarcodeDedupCache dedup = BarcodeDedupCache.getCurrent();
+        if (dedup != null) {
+          JSONObject duplicates = new JSONObject();
+          duplicates.put("hits", dedup.getHitCount());
+          duplicates.put("misses", dedup.getMissCount());
+          json.put("dedup", duplicates);
+        }
+        p_CallbackContext.success(json);
       }
+      return true;
+    }
+
+    return false;
+  }
+
+  @Override
+  public void onRequestPermissionResult(int p_RequestCode, String[] p_Permissions, int[] p_GrantResults)
+      throws JSONException {
+    if (p_RequestCode != RC_CAMERA_PERMISSION || _PendingShow == null) {
+      return;
+    }
+
+    if (p_GrantResults.length > 0 && p_GrantResults[0] == PackageManager.PERMISSION_GRANTED) {
+      _PendingShow.run();
+    } else {
+      ScanResultChannel.cancel(_PendingScanId, "PERMISSION_DENIED");
+    }
+    _PendingShow = null;
+    _PendingScanId = -1;
+  }
+
+  @Override
+  public void onPause(boolean p_MultiTasking) {
+    super.onPause(p_MultiTasking);
+    if (_EmbeddedScanner != null) {
+      _EmbeddedScanner.pause();
+    }
+  }
+
+  @Override
+  public void onResume(boolean p_MultiTasking) {
+    super.onResume(p_MultiTasking);
+    if (_EmbeddedScanner != null) {
+      _EmbeddedScanner.resume();
     }
   }
 
   @Override
-  public void onRestoreStateForActivityResult(Bundle state, CallbackContext callbackContext) {
-    CallbackContext = callbackContext;
+  public void onDestroy() {
+    if (_EmbeddedScanner != null) {
+      _EmbeddedScanner.hide();
+    }
+    ScannerSession.releaseParked();
+    DetectorWarmup.release();
+    super.onDestroy();
   }
 
   // ----------------------------------------------------------------------------
@@ -110,30 +162,145 @@ public class AndroidScanner extends CordovaPlugin {
   // ----------------------------------------------------------------------------
   // |  Private Functions
   // ----------------------------------------------------------------------------
-  private void openNewActivity(Context context, JSONArray args) {
-    Intent intent = new Intent(context, SecondaryActivity.class);
-    intent.putExtra("DetectionTypes", args.optInt(0, 1234));
-    intent.putExtra("ViewFinderWidth", args.optDouble(1, .5));
-    intent.putExtra("ViewFinderHeight", args.optDouble(1, .7));
-
-    this.cordova.setActivityResultCallback(this);
-    this.cordova.startActivityForResult(this, intent, RC_BARCODE_CAPTURE);
-  }
+  /**
+   * Starts a scan, either in the capture activity or, when JS passed a
+   * rectangle, in a view embedded in the Cordova activity. Either way the
+   * barcode comes back through ScanResultChannel. A continuous scan keeps the
+   * callback alive and streams every new barcode to it until the user closes
+   * the scanner or stopScan is called, optionally coalesced into batches.
+   */
+  private void openScan(JSONArray p_Args, final CallbackContext p_CallbackContext) {
+    // Only one scan is shown at a time, and stopScan only reaches the latest
+    // one, so the scan that is still open ends here rather than being left
+    // without a way to stop it. Does nothing if it is over already.
+    ScanResultChannel.stop(_ScanId, "STOPPED");
 
-  // ----------------------------------------------------------------------------
-  // |  Helper classes
-  // ----------------------------------------------------------------------------
-  private class OneShotTask implements Runnable {
-    private Context   _Context;
-    private JSONArray _Args   ;
+    final boolean continuous = p_Args.optBoolean(8, false);
+    long batchWindowMillis = p_Args.optLong(10, 0);
+
+    final ResultBatcher batcher;
+    if (continuous && batchWindowMillis > 0) {
+      batcher = new ResultBatcher(batchWindowMillis, p_Args.optInt(11, 20), p_Args.optLong(12, 250),
+          new ResultBatcher.Sink() {
+            @Override
+            public void send(JSONArray p_Batch) {
+              PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, p_Batch);
+              pluginResult.setKeepCallback(true);
+              p_CallbackContext.sendPluginResult(pluginResult);
+            }
+          });
+    } else {
+      batcher = null;
+    }
+
+    int scanId = ScanResultChannel.open(new ScanResultChannel.Listener() {
+      @Override
+      public void onResult(Barcode p_Barcode) {
+        if (batcher != null) {
+          batcher.add(p_Barcode);
+          return;
+        }
+
+        JSONArray result = new JSONArray();
+        result.put(p_Barcode.rawValue);
+        result.put("");
+        result.put("");
+        PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, result);
+        pluginResult.setKeepCallback(continuous);
+        p_CallbackContext.sendPluginResult(pluginResult);
+
+        Log.d("AndroidScanner", "Barcode read: " + p_Barcode.displayValue);
+      }
+
+      @Override
+      public void onCancelled(String p_Reason) {
+        if (batcher != null) {
+          batcher.flush();
+        }
+
+        JSONArray result = new JSONArray();
+        result.put(p_Reason);
+        result.put("");
+        result.put("");
+        p_CallbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, result));
+      }
+    }, continuous);
+    _ScanId = scanId;
 
-    private OneShotTask(Context p_Context, JSONArray p_TaskArgs) {
-      _Context = p_Context;
-      _Args = p_TaskArgs;
+    JSONObject rect = p_Args.optJSONObject(13);
+    if (rect != null) {
+      showEmbeddedScanner(p_Args, scanId, rect);
+    } else {
+      openScanActivity(p_Args, scanId);
     }
+  }
+
+  /**
+   * Starts the capture activity straight from the plugin, so that a scan costs
+   * one activity transition instead of three.
+   */
+  private void openScanActivity(JSONArray p_Args, int p_ScanId) {
+    Activity activity = cordova.getActivity();
+    Intent intent = new Intent(activity, BarcodeCaptureActivity.class);
+    intent.putExtra(BarcodeCaptureActivity.ScanId, p_ScanId);
+    intent.putExtra("DetectionTypes", p_Args.optInt(0, 1234));
+    intent.putExtra("ViewFinderWidth", p_Args.optDouble(1, .5));
+    intent.putExtra("ViewFinderHeight", p_Args.optDouble(2, .7));
+    intent.putExtra("MultiResolution", p_Args.optBoolean(3, false));
+    intent.putExtra("DetectorWorkers", p_Args.optInt(4, 1));
+    intent.putExtra("TileColumns", p_Args.optInt(5, 1));
+    intent.putExtra("TileRows", p_Args.optInt(6, 1));
+    intent.putExtra("SessionIdleMillis", p_Args.optLong(7, 0));
+    intent.putExtra("Continuous", p_Args.optBoolean(8, false));
+    intent.putExtra("DedupWindowMillis", p_Args.optLong(9, 2000));
+    intent.putExtra("SharpnessThreshold", (float) p_Args.optDouble(14, 0));
+    intent.putExtra("MotionThreshold", (float) p_Args.optDouble(15, 0));
+    intent.putExtra("MotionRecheckMillis", p_Args.optLong(16, 1000));
+    intent.putExtra("AdaptiveMinFps", (float) p_Args.optDouble(17, 0));
+    intent.putExtra("AdaptiveMaxFps", (float) p_Args.optDouble(18, 0));
+
+    activity.startActivity(intent);
+  }
 
-    public void run() {
-      openNewActivity(_Context, _Args);
+  /**
+   * Shows the scanner over or under the WebView, asking for the camera
+   * permission first if needed.
+   */
+  private void showEmbeddedScanner(JSONArray p_Args, final int p_ScanId, final JSONObject p_Rect) {
+    final ScannerFactory factory = new ScannerFactory(p_Args.optInt(0, 1234), p_Args.optDouble(1, .5),
+        p_Args.optDouble(2, .7), p_Args.optBoolean(3, false), p_Args.optInt(4, 1), p_Args.optInt(5, 1),
+        p_Args.optInt(6, 1))
+        .setSharpnessThreshold((float) p_Args.optDouble(14, 0))
+        .setMotionSkipping((float) p_Args.optDouble(15, 0), p_Args.optLong(16, 1000))
+        .setAdaptiveFps((float) p_Args.optDouble(17, 0), (float) p_Args.optDouble(18, 0));
+    final boolean continuous = p_Args.optBoolean(8, false);
+    final long dedupWindowMillis = p_Args.optLong(9, 2000);
+
+    Runnable show = new Runnable() {
+      @Override
+      public void run() {
+        cordova.getActivity().runOnUiThread(new Runnable() {
+          @Override
+          public void run() {
+            if (_EmbeddedScanner == null) {
+              _EmbeddedScanner = new EmbeddedScanner(cordova.getActivity(), webView.getView(),
+                  preferences.getInteger("BackgroundColor", Color.WHITE));
+            }
+            _EmbeddedScanner.show(factory, p_ScanId, continuous, dedupWindowMillis, p_Rect);
+          }
+        });
+      }
+    };
+
+    if (cordova.hasPermission(Manifest.permission.CAMERA)) {
+      show.run();
+    } else {
+      if (_PendingShow != null) {
+        ScanResultChannel.cancel(_PendingScanId, "STOPPED");
+      }
+      _PendingScanId = p_ScanId;
+      _PendingShow = show;
+      cordova.requestPermission(this, RC_CAMERA_PERMISSION, Manifest.permission.CAMERA);
     }
   }
 }
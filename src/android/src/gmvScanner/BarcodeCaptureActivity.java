@@ -4,7 +4,6 @@ package tl.cordova.google.mobile.vision.scanner;
 // |  Android Imports
 // ----------------------------------------------------------------------------
 import android.Manifest;
-import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
@@ -13,8 +12,6 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
-import android.hardware.Camera;
-import android.os.Build;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.design.widget.Snackbar;
@@ -37,9 +34,9 @@ import android.graphics.Point;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
 import com.google.android.gms.common.api.CommonStatusCodes;
+import com.google.android.gms.vision.Detector;
 import com.google.android.gms.vision.MultiProcessor;
 import com.google.android.gms.vision.barcode.Barcode;
-import com.google.android.gms.vision.barcode.BarcodeDetector;
 import com.google.android.gms.common.images.Size;
 
 // ----------------------------------------------------------------------------
@@ -59,10 +56,23 @@ public final class BarcodeCaptureActivity extends    AppCompatActivity
   // ----------------------------------------------------------------------------
   // |  Public Properties
   // ----------------------------------------------------------------------------
-  public              Integer DetectionTypes              ;
-  public              double  ViewFinderWidth  = .5       ;
-  public              double  ViewFinderHeight = .7       ;
-  public static final String  BarcodeObject    = "Barcode";
+  public              Integer DetectionTypes                 ;
+  public              double  ViewFinderWidth     = .5       ;
+  public              double  ViewFinderHeight    = .7       ;
+  public              boolean MultiResolution     = false    ;
+  public              int     DetectorWorkers     = 1        ;
+  public              int     TileColumns         = 1        ;
+  public              int     TileRows            = 1        ;
+  public              long    SessionIdleMillis   = 0        ;
+  public              boolean Continuous          = false    ;
+  public              long    DedupWindowMillis   = 2000     ;
+  public              float   SharpnessThreshold  = 0        ;
+  public              float   MotionThreshold     = 0        ;
+  public              long    MotionRecheckMillis = 1000     ;
+  public              float   AdaptiveMinFps      = 0        ;
+  public              float   AdaptiveMaxFps      = 0        ;
+  public static final String  BarcodeObject       = "Barcode";
+  public static final String  ScanId              = "ScanId" ;
 
   // ----------------------------------------------------------------------------
   // |  Private Properties
@@ -76,6 +86,9 @@ public final class BarcodeCaptureActivity extends    AppCompatActivity
   private GraphicOverlay<BarcodeGraphic> _GraphicOverlay      ;
   private ScaleGestureDetector           _ScaleGestureDetector;
   private GestureDetector                _GestureDetector     ;
+  private ScannerSession                 _Session             ;
+  private int                            _ScanId              ;
+  private BarcodeDedupCache              _Dedup               ;
 
   // ----------------------------------------------------------------------------
   // |  Public Functions
@@ -102,15 +115,45 @@ public final class BarcodeCaptureActivity extends    AppCompatActivity
 
     setContentView(getResources().getIdentifier("barcode_capture", "layout", getPackageName()));
 
-    _Preview = (CameraSourcePreview) findViewById(getResources().getIdentifier("preview", "id", getPackageName()));
-    _Preview.ViewFinderWidth = ViewFinderWidth;
-    _Preview.ViewFinderHeight = ViewFinderHeight;
-    _GraphicOverlay = (GraphicOverlay<BarcodeGraphic>) findViewById(getResources().getIdentifier("graphicOverlay", "id", getPackageName()));
-
     // read parameters from the intent used to launch the activity.
     DetectionTypes = getIntent().getIntExtra("DetectionTypes", 1234);
     ViewFinderWidth = getIntent().getDoubleExtra("ViewFinderWidth", .5);
     ViewFinderHeight = getIntent().getDoubleExtra("ViewFinderHeight", .7);
+    MultiResolution = getIntent().getBooleanExtra("MultiResolution", false);
+    DetectorWorkers = getIntent().getIntExtra("DetectorWorkers", 1);
+    TileColumns = getIntent().getIntExtra("TileColumns", 1);
+    TileRows = getIntent().getIntExtra("TileRows", 1);
+    SessionIdleMillis = getIntent().getLongExtra("SessionIdleMillis", 0);
+    Continuous = getIntent().getBooleanExtra("Continuous", false);
+    DedupWindowMillis = getIntent().getLongExtra("DedupWindowMillis", 2000);
+    SharpnessThreshold = getIntent().getFloatExtra("SharpnessThreshold", 0);
+    MotionThreshold = getIntent().getFloatExtra("MotionThreshold", 0);
+    MotionRecheckMillis = getIntent().getLongExtra("MotionRecheckMillis", 1000);
+    AdaptiveMinFps = getIntent().getFloatExtra("AdaptiveMinFps", 0);
+    AdaptiveMaxFps = getIntent().getFloatExtra("AdaptiveMaxFps", 0);
+    _ScanId = getIntent().getIntExtra(ScanId, -1);
+    _Dedup = new BarcodeDedupCache(DedupWindowMillis);
+
+    if (_ScanId >= 0 && !ScanResultChannel.bind(_ScanId, new Runnable() {
+      @Override
+      public void run() {
+        runOnUiThread(new Runnable() {
+          @Override
+          public void run() {
+            finish();
+          }
+        });
+      }
+    })) {
+      // The scan was stopped before the activity came up.
+      finish();
+      return;
+    }
+
+    _Preview = (CameraSourcePreview) findViewById(getResources().getIdentifier("preview", "id", getPackageName()));
+    _Preview.ViewFinderWidth = ViewFinderWidth;
+    _Preview.ViewFinderHeight = ViewFinderHeight;
+    _GraphicOverlay = (GraphicOverlay<BarcodeGraphic>) findViewById(getResources().getIdentifier("graphicOverlay", "id", getPackageName()));
 
     int rc = ActivityCompat.checkSelfPermission(this, Manifest.permission.CAMERA);
     if (rc == PackageManager.PERMISSION_GRANTED) {
@@ -146,6 +189,17 @@ public final class BarcodeCaptureActivity extends    AppCompatActivity
       DetectionTypes = getIntent().getIntExtra("DetectionTypes", 0);
       ViewFinderWidth = getIntent().getDoubleExtra("ViewFinderWidth", .5);
       ViewFinderHeight = getIntent().getDoubleExtra("ViewFinderHeight", .7);
+      MultiResolution = getIntent().getBooleanExtra("MultiResolution", false);
+      DetectorWorkers = getIntent().getIntExtra("DetectorWorkers", 1);
+      TileColumns = getIntent().getIntExtra("TileColumns", 1);
+      TileRows = getIntent().getIntExtra("TileRows", 1);
+      SessionIdleMillis = getIntent().getLongExtra("SessionIdleMillis", 0);
+      Continuous = getIntent().getBooleanExtra("Continuous", false);
+      SharpnessThreshold = getIntent().getFloatExtra("SharpnessThreshold", 0);
+      MotionThreshold = getIntent().getFloatExtra("MotionThreshold", 0);
+      MotionRecheckMillis = getIntent().getLongExtra("MotionRecheckMillis", 1000);
+      AdaptiveMinFps = getIntent().getFloatExtra("AdaptiveMinFps", 0);
+      AdaptiveMaxFps = getIntent().getFloatExtra("AdaptiveMaxFps", 0);
 
       createCameraSource(true, false);
       return;
@@ -167,11 +221,24 @@ public final class BarcodeCaptureActivity extends    AppCompatActivity
 
   @Override
   public void onBarcodeDetected(Barcode barcode) {
-    // do something with barcode data returned
+    if (_ScanId >= 0) {
+      // Started by the plugin, which waits on the result channel.
+      if (!_Dedup.isNew(barcode)) {
+        return;
+      }
 
-    Intent data = new Intent();
-    data.putExtra(BarcodeObject, barcode);
-    setResult(CommonStatusCodes.SUCCESS, data);
+      CameraSource2 cameraSource = _CameraSource;
+      long firstFrameNanos = (cameraSource != null) ? cameraSource.getMetrics().getFirstFrameNanos() : 0;
+      ScanResultChannel.deliver(_ScanId, barcode, firstFrameNanos);
+      if (Continuous) {
+        // Keep the camera and the detector running for the next barcode.
+        return;
+      }
+    } else {
+      Intent data = new Intent();
+      data.putExtra(BarcodeObject, barcode);
+      setResult(CommonStatusCodes.SUCCESS, data);
+    }
     finish();
   }
 
@@ -188,14 +255,26 @@ public final class BarcodeCaptureActivity extends    AppCompatActivity
   protected void onPause() {
     super.onPause();
     if (_Preview != null) {
-      _Preview.stop();
+      if (SessionIdleMillis > 0) {
+        _Preview.park();
+      } else {
+        _Preview.stop();
+      }
     }
   }
 
   @Override
   protected void onDestroy() {
     super.onDestroy();
-    if (_Preview != null) {
+    if (_ScanId >= 0 && isFinishing()) {
+      // Does nothing if the scan is over already.
+      ScanResultChannel.cancel(_ScanId, "USER_CANCELLED");
+    }
+    if (_Session != null && SessionIdleMillis > 0) {
+      // The camera source was parked in onPause().
+      ScannerSession.park(_Session, SessionIdleMillis);
+      _Session = null;
+    } else if (_Preview != null) {
       _Preview.release();
     }
   }
@@ -203,24 +282,28 @@ public final class BarcodeCaptureActivity extends    AppCompatActivity
   // ----------------------------------------------------------------------------
   // |  Private Functions
   // ----------------------------------------------------------------------------
-  @SuppressLint("InlinedApi")
   private void createCameraSource(boolean autoFocus, boolean useFlash) {
     Context context = getApplicationContext();
-
-    int detectionType = 0;
-
-    if (DetectionTypes == 0 || DetectionTypes == 1234) {
-      detectionType = (Barcode.CODE_39 | Barcode.DATA_MATRIX);
-    } else {
-      detectionType = DetectionTypes;
+    ScannerFactory factory = new ScannerFactory(DetectionTypes, ViewFinderWidth, ViewFinderHeight, MultiResolution,
+        DetectorWorkers, TileColumns, TileRows)
+        .setSharpnessThreshold(SharpnessThreshold)
+        .setMotionSkipping(MotionThreshold, MotionRecheckMillis)
+        .setAdaptiveFps(AdaptiveMinFps, AdaptiveMaxFps);
+
+    String sessionKey = factory.getSessionKey(autoFocus, useFlash);
+    _Session = ScannerSession.resume(sessionKey);
+    if (_Session != null) {
+      _Session.getTrackerFactory().setTarget(_GraphicOverlay, this);
+      _CameraSource = _Session.getCameraSource();
+      return;
     }
 
-    BarcodeDetector barcodeDetector = new BarcodeDetector.Builder(context).setBarcodeFormats(detectionType).build();
     BarcodeTrackerFactory barcodeFactory = new BarcodeTrackerFactory(_GraphicOverlay, this);
-  
-    barcodeDetector.setProcessor(new MultiProcessor.Builder<>(barcodeFactory).build());
+    MultiProcessor<Barcode> processor = new MultiProcessor.Builder<>(barcodeFactory).build();
+
+    Detector<Barcode> detector = factory.createDetector(context);
 
-    if (!barcodeDetector.isOperational()) {
+    if (!detector.isOperational()) {
       Log.w(TAG, "Detector dependencies are not yet available.");
   
       IntentFilter lowstorageFilter = new IntentFilter(Intent.ACTION_DEVICE_STORAGE_LOW);
@@ -233,16 +316,8 @@ public final class BarcodeCaptureActivity extends    AppCompatActivity
       }
     }
 
-    CameraSource2.Builder builder = new CameraSource2.Builder(getApplicationContext(), barcodeDetector)
-        .setFacing(CameraSource2.CAMERA_FACING_BACK)
-        .setRequestedPreviewSize(1600, 1024)
-        .setRequestedFps(15.0f);
-
-    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
-      builder = builder.setFocusMode(autoFocus ? Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE : null);
-    }
-
-    _CameraSource = builder.setFlashMode(useFlash ? Camera.Parameters.FLASH_MODE_TORCH : null).build();
+    _CameraSource = factory.createCameraSource(context, detector, processor, autoFocus, useFlash);
+    _Session = new ScannerSession(sessionKey, _CameraSource, barcodeFactory, processor);
   }
 
   private void startCameraSource() throws SecurityException {
@@ -259,6 +334,7 @@ public final class BarcodeCaptureActivity extends    AppCompatActivity
         Log.e(TAG, "Unable to start camera source.", e);
         _CameraSource.release();
         _CameraSource = null;
+        _Session = null;
       }
     }
   }
@@ -300,9 +376,21 @@ public final class BarcodeCaptureActivity extends    AppCompatActivity
   }
 
   private class ScaleListener implements ScaleGestureDetector.OnScaleGestureListener {
+    /**
+     * Returning true makes the next scale factor relative to this event, so the
+     * zoom follows the fingers instead of jumping once the gesture ends.
+     */
     @Override
     public boolean onScale(ScaleGestureDetector detector) {
-      return false;
+      // There is no camera source while the permission request is open or after
+      // it failed to start.
+      CameraSource2 cameraSource = _CameraSource;
+      if (cameraSource == null) {
+        return false;
+      }
+
+      cameraSource.zoomBy(detector.getScaleFactor());
+      return true;
     }
 
     @Override
@@ -312,7 +400,6 @@ public final class BarcodeCaptureActivity extends    AppCompatActivity
 
     @Override
     public void onScaleEnd(ScaleGestureDetector detector) {
-      _CameraSource.doZoom(detector.getScaleFactor());
     }
   }
 }
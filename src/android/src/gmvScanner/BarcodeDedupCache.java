@@ -0,0 +1,109 @@
+package tl.cordova.google.mobile.vision.scanner;
+
+// ----------------------------------------------------------------------------
+// |  Android Imports
+// ----------------------------------------------------------------------------
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+
+// ----------------------------------------------------------------------------
+// |  Google Imports
+// ----------------------------------------------------------------------------
+import com.google.android.gms.vision.barcode.Barcode;
+
+// ----------------------------------------------------------------------------
+// |  Java Imports
+// ----------------------------------------------------------------------------
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Suppresses barcodes that were reported within the last window. MultiProcessor
+// starts a new tracker, and so reports the code again, whenever a code comes
+// back after leaving the frame for a moment, which in continuous mode would
+// send the same code over the bridge over and over. Codes are keyed on format
+// and raw value. Every sighting restarts the window, so a code that stays in
+// view is reported once. The least recently seen codes are dropped beyond
+// MAX_ENTRIES.
+final class BarcodeDedupCache {
+  // ----------------------------------------------------------------------------
+  // | Private Properties
+  // ----------------------------------------------------------------------------
+  private static final int MAX_ENTRIES = 256;
+
+  private static volatile BarcodeDedupCache _Current;
+
+  private final long      _WindowMillis                  ;
+  private final SeenCodes _Seen         = new SeenCodes();
+  private long            _Hits                          ;
+  private long            _Misses                        ;
+
+  // ----------------------------------------------------------------------------
+  // | Constructor
+  // ----------------------------------------------------------------------------
+  BarcodeDedupCache(long p_WindowMillis) {
+    _WindowMillis = p_WindowMillis;
+    _Current = this;
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Public Functions
+  // ----------------------------------------------------------------------------
+
+  /**
+   * The cache of the most recent scan, or null if there was none yet.
+   */
+  @Nullable
+  static BarcodeDedupCache getCurrent() {
+    return _Current;
+  }
+
+  /**
+   * Records a sighting of p_Barcode and returns whether it should be reported,
+   * that is, whether it was not seen within the window.
+   */
+  synchronized boolean isNew(Barcode p_Barcode) {
+    String key = p_Barcode.format + ":" + p_Barcode.rawValue;
+    long now = SystemClock.elapsedRealtime();
+
+    Long seen = _Seen.put(key, now);
+    if (seen != null && now - seen < _WindowMillis) {
+      _Hits++;
+      return false;
+    }
+
+    _Misses++;
+    return true;
+  }
+
+  /**
+   * Number of sightings that were suppressed.
+   */
+  synchronized long getHitCount() {
+    return _Hits;
+  }
+
+  /**
+   * Number of sightings that were reported.
+   */
+  synchronized long getMissCount() {
+    return _Misses;
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Helper Classes
+  // ----------------------------------------------------------------------------
+
+  /**
+   * Last sighting per code, in access order.
+   */
+  private static final class SeenCodes extends LinkedHashMap<String, Long> {
+    private SeenCodes() {
+      super(16, .75f, true);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Long> p_Eldest) {
+      return size() > MAX_ENTRIES;
+    }
+  }
+}
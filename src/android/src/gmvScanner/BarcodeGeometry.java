@@ -0,0 +1,90 @@
+package tl.cordova.google.mobile.vision.scanner;
+
+// ----------------------------------------------------------------------------
+// |  Android Imports
+// ----------------------------------------------------------------------------
+import android.graphics.Point;
+
+// ----------------------------------------------------------------------------
+// |  Google Imports
+// ----------------------------------------------------------------------------
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+
+// Coordinate helpers for the detectors that run on part of a frame (a crop, a
+// tile or a scaled copy) and have to move their results back into the
+// coordinates of the whole frame.
+final class BarcodeGeometry {
+  // ----------------------------------------------------------------------------
+  // |  Constructor
+  // ----------------------------------------------------------------------------
+  private BarcodeGeometry() {
+  }
+
+  // ----------------------------------------------------------------------------
+  // |  Public Functions
+  // ----------------------------------------------------------------------------
+
+  /**
+   * Horizontal offset, in upright coordinates, of a region given in sensor
+   * coordinates. Detectors report upright coordinates, so the sensor offset of
+   * the region has to be rotated the same way before it is added back.
+   */
+  static int uprightOffsetX(int p_Rotation, int p_Width, int p_Height, int p_Left, int p_Top, int p_RegionWidth,
+      int p_RegionHeight) {
+    switch (p_Rotation) {
+    case Frame.ROTATION_90:
+      return p_Height - p_Top - p_RegionHeight;
+    case Frame.ROTATION_180:
+      return p_Width - p_Left - p_RegionWidth;
+    case Frame.ROTATION_270:
+      return p_Top;
+    default:
+      return p_Left;
+    }
+  }
+
+  /**
+   * Vertical counterpart of uprightOffsetX().
+   */
+  static int uprightOffsetY(int p_Rotation, int p_Width, int p_Height, int p_Left, int p_Top, int p_RegionWidth,
+      int p_RegionHeight) {
+    switch (p_Rotation) {
+    case Frame.ROTATION_90:
+      return p_Left;
+    case Frame.ROTATION_180:
+      return p_Height - p_Top - p_RegionHeight;
+    case Frame.ROTATION_270:
+      return p_Width - p_Left - p_RegionWidth;
+    default:
+      return p_Top;
+    }
+  }
+
+  static void translate(Barcode p_Barcode, int p_OffsetX, int p_OffsetY) {
+    if (p_Barcode.cornerPoints == null) {
+      return;
+    }
+
+    for (Point point : p_Barcode.cornerPoints) {
+      point.offset(p_OffsetX, p_OffsetY);
+    }
+  }
+
+  static void scale(Barcode p_Barcode, int p_Factor) {
+    if (p_Barcode.cornerPoints == null) {
+      return;
+    }
+
+    for (Point point : p_Barcode.cornerPoints) {
+      point.set(point.x * p_Factor, point.y * p_Factor);
+    }
+  }
+
+  /**
+   * Rounds down to an even number, as NV21 image sizes and offsets must be.
+   */
+  static int even(double p_Value) {
+    return ((int) p_Value) & ~1;
+  }
+}
@@ -3,7 +3,6 @@ package tl.cordova.google.mobile.vision.scanner;
 // ----------------------------------------------------------------------------
 // |  Android Imports
 // ----------------------------------------------------------------------------
-import android.content.Context;
 import android.support.annotation.UiThread;
 
 // ----------------------------------------------------------------------------
@@ -34,14 +33,11 @@ public class BarcodeGraphicTracker extends Tracker<Barcode> {
   private BarcodeGraphic                 _Graphic              ;
   private BarcodeUpdateListener          _BarcodeUpdateListener;
 
-  BarcodeGraphicTracker(GraphicOverlay<BarcodeGraphic> p_Overlay, BarcodeGraphic p_Graphic, Context p_Context) {
+  BarcodeGraphicTracker(GraphicOverlay<BarcodeGraphic> p_Overlay, BarcodeGraphic p_Graphic,
+      BarcodeUpdateListener p_BarcodeUpdateListener) {
     this._Overlay = p_Overlay;
     this._Graphic = p_Graphic;
-    if (p_Context instanceof BarcodeUpdateListener) {
-      this._BarcodeUpdateListener = (BarcodeUpdateListener) p_Context;
-    } else {
-      throw new RuntimeException("Hosting activity must implement BarcodeUpdateListener");
-    }
+    this._BarcodeUpdateListener = p_BarcodeUpdateListener;
   }
 
   // ----------------------------------------------------------------------------
@@ -0,0 +1,110 @@
+package tl.cordova.google.mobile.vision.scanner;
+
+// ----------------------------------------------------------------------------
+// |  Android Imports
+// ----------------------------------------------------------------------------
+import android.util.SparseArray;
+
+// ----------------------------------------------------------------------------
+// |  Google Imports
+// ----------------------------------------------------------------------------
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+
+// ----------------------------------------------------------------------------
+// |  Our Imports
+// ----------------------------------------------------------------------------
+import tl.cordova.google.mobile.vision.scanner.ui.camera.LumaFrame;
+import tl.cordova.google.mobile.vision.scanner.ui.camera.PipelineMetrics;
+
+// Two level detection. Most scans are made up close, where the barcode is large
+// enough to be read from a half resolution image at a quarter of the cost, so the
+// wrapped detector first runs on a 2x decimated luma image and only falls back to
+// the full resolution frame when that finds nothing. Attempts, hits and latency
+// of each level are recorded in the metrics of the current camera session.
+public class BarcodePyramidDetector extends Detector<Barcode> {
+  // ----------------------------------------------------------------------------
+  // |  Public Properties
+  // ----------------------------------------------------------------------------
+  public static final int LEVEL_FULL = 0;
+  public static final int LEVEL_HALF = 1;
+
+  // ----------------------------------------------------------------------------
+  // |  Private Properties
+  // ----------------------------------------------------------------------------
+  /**
+   * Frames whose half resolution image would be smaller than this in either
+   * direction go straight to the full resolution pass.
+   */
+  private static final int MIN_LEVEL_SIZE = 160;
+
+  private final Detector<Barcode> _Detector ;
+  private LumaFrame               _HalfLevel;
+
+  public BarcodePyramidDetector(Detector<Barcode> p_Detector) {
+    _Detector = p_Detector;
+  }
+
+  // ----------------------------------------------------------------------------
+  // |  Public Functions
+  // ----------------------------------------------------------------------------
+  @Override
+  public SparseArray<Barcode> detect(Frame p_Frame) {
+    Frame.Metadata metadata = p_Frame.getMetadata();
+    int halfWidth = (metadata.getWidth() / 2) & ~1;
+    int halfHeight = (metadata.getHeight() / 2) & ~1;
+
+    if ((halfWidth >= MIN_LEVEL_SIZE) && (halfHeight >= MIN_LEVEL_SIZE)) {
+      long start = System.nanoTime();
+
+      if ((_HalfLevel == null) || !_HalfLevel.hasSize(halfWidth, halfHeight)) {
+        _HalfLevel = new LumaFrame(halfWidth, halfHeight);
+      }
+      _HalfLevel.downsampleFrom(p_Frame.getGrayscaleImageData(), metadata.getWidth());
+
+      SparseArray<Barcode> barcodes = _Detector
+          .detect(_HalfLevel.build(metadata.getId(), metadata.getTimestampMillis(), metadata.getRotation()));
+      record(LEVEL_HALF, start, barcodes.size() > 0);
+
+      if (barcodes.size() > 0) {
+        for (int i = 0; i < barcodes.size(); ++i) {
+          BarcodeGeometry.scale(barcodes.valueAt(i), 2);
+        }
+        return barcodes;
+      }
+    }
+
+    long start = System.nanoTime();
+    SparseArray<Barcode> barcodes = _Detector.detect(p_Frame);
+    record(LEVEL_FULL, start, barcodes.size() > 0);
+
+    return barcodes;
+  }
+
+  @Override
+  public boolean isOperational() {
+    return _Detector.isOperational();
+  }
+
+  @Override
+  public boolean setFocus(int p_Id) {
+    return _Detector.setFocus(p_Id);
+  }
+
+  @Override
+  public void release() {
+    _Detector.release();
+    super.release();
+  }
+
+  // ----------------------------------------------------------------------------
+  // |  Private Functions
+  // ----------------------------------------------------------------------------
+  private static void record(int p_Level, long p_StartNanos, boolean p_Hit) {
+    PipelineMetrics metrics = PipelineMetrics.getCurrent();
+    if (metrics != null) {
+      metrics.onPyramidLevel(p_Level, p_StartNanos, p_Hit);
+    }
+  }
+}
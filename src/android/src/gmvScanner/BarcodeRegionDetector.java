@@ -0,0 +1,117 @@
+package tl.cordova.google.mobile.vision.scanner;
+
+// ----------------------------------------------------------------------------
+// |  Android Imports
+// ----------------------------------------------------------------------------
+import android.util.SparseArray;
+
+// ----------------------------------------------------------------------------
+// |  Google Imports
+// ----------------------------------------------------------------------------
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+
+// ----------------------------------------------------------------------------
+// |  Our Imports
+// ----------------------------------------------------------------------------
+import tl.cordova.google.mobile.vision.scanner.ui.camera.CameraSource2;
+import tl.cordova.google.mobile.vision.scanner.ui.camera.LumaFrame;
+
+// Runs the wrapped detector on the view finder rectangle only. The preview frame
+// is cropped to the centered view finder region before detection, and the
+// barcode corners are translated back to full frame coordinates afterwards, so
+// the processor and the GraphicOverlay never see the crop.
+public class BarcodeRegionDetector extends Detector<Barcode> implements CameraSource2.ResultReporting {
+  // ----------------------------------------------------------------------------
+  // |  Private Properties
+  // ----------------------------------------------------------------------------
+  private final Detector<Barcode> _Detector      ;
+  private final double            _WidthFraction ;
+  private final double            _HeightFraction;
+  private LumaFrame               _Region        ;
+  private volatile boolean        _HadResults    ;
+
+  /**
+   * The fractions are those of the view finder on screen, i.e. relative to the
+   * upright image rather than to the sensor.
+   */
+  public BarcodeRegionDetector(Detector<Barcode> p_Detector, double p_WidthFraction, double p_HeightFraction) {
+    if ((p_WidthFraction <= 0) || (p_WidthFraction > 1) || (p_HeightFraction <= 0) || (p_HeightFraction > 1)) {
+      throw new IllegalArgumentException("Invalid view finder size: " + p_WidthFraction + "x" + p_HeightFraction);
+    }
+
+    _Detector       = p_Detector      ;
+    _WidthFraction  = p_WidthFraction ;
+    _HeightFraction = p_HeightFraction;
+  }
+
+  // ----------------------------------------------------------------------------
+  // |  Public Functions
+  // ----------------------------------------------------------------------------
+  @Override
+  public SparseArray<Barcode> detect(Frame p_Frame) {
+    SparseArray<Barcode> barcodes = detectRegion(p_Frame);
+    _HadResults = barcodes.size() > 0;
+    return barcodes;
+  }
+
+  @Override
+  public boolean lastFrameHadResults() {
+    return _HadResults;
+  }
+
+  @Override
+  public boolean isOperational() {
+    return _Detector.isOperational();
+  }
+
+  @Override
+  public boolean setFocus(int p_Id) {
+    return _Detector.setFocus(p_Id);
+  }
+
+  @Override
+  public void release() {
+    _Detector.release();
+    super.release();
+  }
+
+  // ----------------------------------------------------------------------------
+  // |  Private Functions
+  // ----------------------------------------------------------------------------
+  private SparseArray<Barcode> detectRegion(Frame p_Frame) {
+    Frame.Metadata metadata = p_Frame.getMetadata();
+    int width = metadata.getWidth();
+    int height = metadata.getHeight();
+    int rotation = metadata.getRotation();
+
+    // The sensor image is rotated by 90 or 270 degrees relative to the screen,
+    // so the view finder width runs along the sensor height.
+    boolean swapped = (rotation == Frame.ROTATION_90) || (rotation == Frame.ROTATION_270);
+    int regionWidth = BarcodeGeometry.even(width * (swapped ? _HeightFraction : _WidthFraction));
+    int regionHeight = BarcodeGeometry.even(height * (swapped ? _WidthFraction : _HeightFraction));
+    if ((regionWidth <= 0) || (regionHeight <= 0) || ((regionWidth >= width) && (regionHeight >= height))) {
+      return _Detector.detect(p_Frame);
+    }
+
+    int left = BarcodeGeometry.even((width - regionWidth) / 2.0);
+    int top = BarcodeGeometry.even((height - regionHeight) / 2.0);
+
+    if ((_Region == null) || !_Region.hasSize(regionWidth, regionHeight)) {
+      _Region = new LumaFrame(regionWidth, regionHeight);
+    }
+    _Region.copyRegion(p_Frame.getGrayscaleImageData(), width, left, top);
+
+    SparseArray<Barcode> barcodes = _Detector
+        .detect(_Region.build(metadata.getId(), metadata.getTimestampMillis(), rotation));
+
+    int offsetX = BarcodeGeometry.uprightOffsetX(rotation, width, height, left, top, regionWidth, regionHeight);
+    int offsetY = BarcodeGeometry.uprightOffsetY(rotation, width, height, left, top, regionWidth, regionHeight);
+    for (int i = 0; i < barcodes.size(); ++i) {
+      BarcodeGeometry.translate(barcodes.valueAt(i), offsetX, offsetY);
+    }
+
+    return barcodes;
+  }
+}
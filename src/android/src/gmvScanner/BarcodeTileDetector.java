@@ -0,0 +1,410 @@
+package tl.cordova.google.mobile.vision.scanner;
+
+// ----------------------------------------------------------------------------
+// |  Android Imports
+// ----------------------------------------------------------------------------
+import android.graphics.Rect;
+import android.util.Log;
+import android.util.SparseArray;
+
+// ----------------------------------------------------------------------------
+// |  Google Imports
+// ----------------------------------------------------------------------------
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+
+// ----------------------------------------------------------------------------
+// |  Java Imports
+// ----------------------------------------------------------------------------
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// ----------------------------------------------------------------------------
+// |  Our Imports
+// ----------------------------------------------------------------------------
+import tl.cordova.google.mobile.vision.scanner.ui.camera.CameraSource2;
+import tl.cordova.google.mobile.vision.scanner.ui.camera.LumaFrame;
+
+// Splits the frame into a grid of overlapping tiles and runs a detector on each
+// of them, several tiles at a time. Small symbols cover many more pixels of a
+// tile than of the whole frame, so they are found where a single full frame pass
+// misses them. A symbol lying in an overlap is reported by more than one tile;
+// those duplicates are merged before the results, moved back to full frame
+// coordinates, are handed on. The ids of the merged results are mapped back to
+// the tile detector that found them for setFocus().
+public class BarcodeTileDetector extends Detector<Barcode> implements CameraSource2.ResultReporting {
+  // ----------------------------------------------------------------------------
+  // |  Private Properties
+  // ----------------------------------------------------------------------------
+  private static final String TAG = "Barcode-reader";
+
+  private static final long RELEASE_TIMEOUT_MILLIS = 1000;
+
+  private final Object                  _Lock        = new Object();
+  private final int                     _Columns                    ;
+  private final int                     _Rows                       ;
+  private final double                  _Overlap                    ;
+  private final List<Detector<Barcode>> _Detectors                  ;
+  private final List<TileTask>          _Tasks                      ;
+  private final ExecutorService         _Executor                   ;
+  private final List<Future<Void>>      _Futures                    ;
+  private final List<Barcode>           _Merged                     ;
+  private final List<Detector<Barcode>> _MergedOwners               ;
+  private final List<Integer>           _MergedIds                  ;
+  private Tile[]                        _Tiles                      ;
+  private int                           _Width                      ;
+  private int                           _Height                     ;
+  private int                           _Rotation                   ;
+  private boolean                       _Released                   ;
+  private volatile boolean              _HadResults                 ;
+
+  /**
+   * The grid is given relative to the upright image, like the view finder. Each
+   * tile is enlarged by p_Overlap of its size so that a symbol cut by one tile
+   * border is whole in the neighbouring tile. One detector is created per
+   * thread; p_Threads is capped at the number of tiles.
+   */
+  public BarcodeTileDetector(CameraSource2.DetectorFactory<Barcode> p_Factory, int p_Columns, int p_Rows,
+      double p_Overlap, int p_Threads) {
+    if ((p_Columns <= 0) || (p_Rows <= 0) || (p_Overlap < 0) || (p_Overlap >= 1) || (p_Threads <= 0)) {
+      throw new IllegalArgumentException("Invalid tiling: " + p_Columns + "x" + p_Rows + ", overlap " + p_Overlap
+          + ", " + p_Threads + " threads");
+    }
+
+    _Columns = p_Columns;
+    _Rows = p_Rows;
+    _Overlap = p_Overlap;
+
+    int threads = Math.min(p_Threads, p_Columns * p_Rows);
+    _Detectors = new ArrayList<>(threads);
+    _Tasks = new ArrayList<>(threads);
+    for (int i = 0; i < threads; ++i) {
+      _Detectors.add(p_Factory.create());
+      _Tasks.add(new TileTask(i, threads, _Detectors.get(i)));
+    }
+
+    // The calling thread works through the first share of the tiles itself, so
+    // only the remaining ones need a thread of their own.
+    _Executor = (threads > 1) ? Executors.newFixedThreadPool(threads - 1) : null;
+    _Futures = new ArrayList<>(threads);
+    _Merged = new ArrayList<>();
+    _MergedOwners = new ArrayList<>();
+    _MergedIds = new ArrayList<>();
+  }
+
+  // ----------------------------------------------------------------------------
+  // |  Public Functions
+  // ----------------------------------------------------------------------------
+  @Override
+  public SparseArray<Barcode> detect(Frame p_Frame) {
+    synchronized (_Lock) {
+      if (_Released) {
+        return new SparseArray<>();
+      }
+
+      SparseArray<Barcode> barcodes = detectTiles(p_Frame);
+      _HadResults = barcodes.size() > 0;
+      return barcodes;
+    }
+  }
+
+  @Override
+  public boolean lastFrameHadResults() {
+    return _HadResults;
+  }
+
+  @Override
+  public boolean isOperational() {
+    for (Detector<Barcode> detector : _Detectors) {
+      if (!detector.isOperational()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean setFocus(int p_Id) {
+    // The ids of the last frame are the indices into its merged results.
+    synchronized (_Lock) {
+      if (_Released || (p_Id < 0) || (p_Id >= _MergedOwners.size())) {
+        return false;
+      }
+      return _MergedOwners.get(p_Id).setFocus(_MergedIds.get(p_Id));
+    }
+  }
+
+  /**
+   * Waits for a detection that is running to finish, so that no tile detector
+   * is released while it is still in use.
+   */
+  @Override
+  public void release() {
+    synchronized (_Lock) {
+      if (_Released) {
+        return;
+      }
+      _Released = true;
+
+      if (_Executor != null) {
+        _Executor.shutdown();
+        try {
+          if (!_Executor.awaitTermination(RELEASE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            Log.w(TAG, "Tile threads did not stop within " + RELEASE_TIMEOUT_MILLIS + " ms.");
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      for (Detector<Barcode> detector : _Detectors) {
+        detector.release();
+      }
+      _MergedOwners.clear();
+      _MergedIds.clear();
+    }
+    super.release();
+  }
+
+  // ----------------------------------------------------------------------------
+  // |  Private Functions
+  // ----------------------------------------------------------------------------
+  /**
+   * Called with the lock held.
+   */
+  private SparseArray<Barcode> detectTiles(Frame p_Frame) {
+    _MergedOwners.clear();
+    _MergedIds.clear();
+
+    Frame.Metadata metadata = p_Frame.getMetadata();
+    layoutTiles(metadata.getWidth(), metadata.getHeight(), metadata.getRotation());
+    if (_Tiles == null) {
+      SparseArray<Barcode> barcodes = _Detectors.get(0).detect(p_Frame);
+      for (int i = 0; i < barcodes.size(); ++i) {
+        _MergedOwners.add(_Detectors.get(0));
+        _MergedIds.add(barcodes.keyAt(i));
+      }
+      return barcodes;
+    }
+
+    for (TileTask task : _Tasks) {
+      task._Frame = p_Frame;
+    }
+
+    // Every task that was submitted is waited for, even when another one failed
+    // or this thread was interrupted, since a task may still be inside its
+    // detector and reads the frame and the tiles until it returns.
+    Throwable failure = null;
+    boolean interrupted = false;
+    _Futures.clear();
+    try {
+      for (int i = 1; i < _Tasks.size(); ++i) {
+        _Futures.add(_Executor.submit(_Tasks.get(i)));
+      }
+      _Tasks.get(0).call();
+    } catch (RuntimeException e) {
+      failure = e;
+    } finally {
+      for (Future<Void> future : _Futures) {
+        while (true) {
+          try {
+            future.get();
+            break;
+          } catch (InterruptedException e) {
+            interrupted = true;
+          } catch (ExecutionException e) {
+            if (failure == null) {
+              failure = e.getCause();
+            }
+            break;
+          }
+        }
+      }
+      _Futures.clear();
+      for (TileTask task : _Tasks) {
+        task._Frame = null;
+      }
+    }
+
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if ((failure != null) || interrupted) {
+      for (Tile tile : _Tiles) {
+        tile._Results = null;
+      }
+      if (failure != null) {
+        throw new RuntimeException("Tile detection failed", failure);
+      }
+      return new SparseArray<>();
+    }
+
+    return merge();
+  }
+
+  /**
+   * Recomputes the tile rectangles when the frame size or orientation changes.
+   * Leaves _Tiles null when the grid is a single tile.
+   */
+  private void layoutTiles(int p_Width, int p_Height, int p_Rotation) {
+    if ((p_Width == _Width) && (p_Height == _Height) && (p_Rotation == _Rotation)) {
+      return;
+    }
+
+    _Width = p_Width;
+    _Height = p_Height;
+    _Rotation = p_Rotation;
+    _Tiles = null;
+    if (_Columns * _Rows == 1) {
+      return;
+    }
+
+    // Columns and rows run across the upright image, which is the sensor image
+    // turned by 90 or 270 degrees in portrait.
+    boolean swapped = (p_Rotation == Frame.ROTATION_90) || (p_Rotation == Frame.ROTATION_270);
+    int columns = swapped ? _Rows : _Columns;
+    int rows = swapped ? _Columns : _Rows;
+
+    int tileWidth = Math.min(p_Width, BarcodeGeometry.even(p_Width / (double) columns * (1 + _Overlap)));
+    int tileHeight = Math.min(p_Height, BarcodeGeometry.even(p_Height / (double) rows * (1 + _Overlap)));
+    if ((tileWidth <= 0) || (tileHeight <= 0)) {
+      Log.w(TAG, "Frame " + p_Width + "x" + p_Height + " is too small to tile, using the whole frame.");
+      return;
+    }
+
+    Tile[] tiles = new Tile[columns * rows];
+    for (int row = 0; row < rows; ++row) {
+      int top = (rows > 1) ? BarcodeGeometry.even((p_Height - tileHeight) * row / (double) (rows - 1)) : 0;
+      for (int column = 0; column < columns; ++column) {
+        int left = (columns > 1) ? BarcodeGeometry.even((p_Width - tileWidth) * column / (double) (columns - 1)) : 0;
+        tiles[row * columns + column] = new Tile(left, top, tileWidth, tileHeight);
+      }
+    }
+    _Tiles = tiles;
+  }
+
+  /**
+   * Collects the tile results into one array. A result whose format and value
+   * match an earlier one and whose bounding box overlaps it is the same symbol
+   * seen by two tiles; the copy with the larger box is kept, since a symbol cut
+   * by a tile border can still decode from its visible part.
+   */
+  private SparseArray<Barcode> merge() {
+    _Merged.clear();
+    for (int t = 0; t < _Tiles.length; ++t) {
+      Tile tile = _Tiles[t];
+      // Tile t is handled by the task, and so the detector, t modulo the
+      // number of tasks; see TileTask.
+      Detector<Barcode> owner = _Detectors.get(t % _Tasks.size());
+      for (int i = 0; i < tile._Results.size(); ++i) {
+        Barcode barcode = tile._Results.valueAt(i);
+        int duplicate = findDuplicate(barcode);
+        if (duplicate < 0) {
+          _Merged.add(barcode);
+          _MergedOwners.add(owner);
+          _MergedIds.add(tile._Results.keyAt(i));
+        } else if (area(barcode) > area(_Merged.get(duplicate))) {
+          _Merged.set(duplicate, barcode);
+          _MergedOwners.set(duplicate, owner);
+          _MergedIds.set(duplicate, tile._Results.keyAt(i));
+        }
+      }
+      tile._Results = null;
+    }
+
+    SparseArray<Barcode> barcodes = new SparseArray<>(_Merged.size());
+    for (int i = 0; i < _Merged.size(); ++i) {
+      barcodes.append(i, _Merged.get(i));
+    }
+    _Merged.clear();
+    return barcodes;
+  }
+
+  private int findDuplicate(Barcode p_Barcode) {
+    Rect box = p_Barcode.getBoundingBox();
+    for (int i = 0; i < _Merged.size(); ++i) {
+      Barcode other = _Merged.get(i);
+      if ((other.format == p_Barcode.format) && (other.rawValue != null) && other.rawValue.equals(p_Barcode.rawValue)
+          && Rect.intersects(box, other.getBoundingBox())) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int area(Barcode p_Barcode) {
+    Rect box = p_Barcode.getBoundingBox();
+    return box.width() * box.height();
+  }
+
+  // ----------------------------------------------------------------------------
+  // |  Helper classes
+  // ----------------------------------------------------------------------------
+  private static final class Tile {
+    private final int            _Left   ;
+    private final int            _Top    ;
+    private final LumaFrame      _Luma   ;
+    private SparseArray<Barcode> _Results;
+
+    private Tile(int p_Left, int p_Top, int p_Width, int p_Height) {
+      _Left = p_Left;
+      _Top = p_Top;
+      _Luma = new LumaFrame(p_Width, p_Height);
+    }
+  }
+
+  /**
+   * Runs one detector over every p_Stride-th tile, starting at p_First. Each
+   * task owns its detector, so no detector is ever used by two threads.
+   */
+  private final class TileTask implements Callable<Void> {
+    private final int               _First   ;
+    private final int               _Stride  ;
+    private final Detector<Barcode> _Detector;
+    private volatile Frame          _Frame   ;
+
+    private TileTask(int p_First, int p_Stride, Detector<Barcode> p_Detector) {
+      _First = p_First;
+      _Stride = p_Stride;
+      _Detector = p_Detector;
+    }
+
+    @Override
+    public Void call() {
+      Frame.Metadata metadata = _Frame.getMetadata();
+
+      // Direct buffers are read through their position, which the tasks must
+      // not share.
+      ByteBuffer source = _Frame.getGrayscaleImageData();
+      if (!source.hasArray()) {
+        source = source.duplicate();
+      }
+
+      for (int i = _First; i < _Tiles.length; i += _Stride) {
+        Tile tile = _Tiles[i];
+        LumaFrame luma = tile._Luma;
+        luma.copyRegion(source, _Width, tile._Left, tile._Top);
+
+        SparseArray<Barcode> barcodes = _Detector
+            .detect(luma.build(metadata.getId(), metadata.getTimestampMillis(), _Rotation));
+
+        int offsetX = BarcodeGeometry.uprightOffsetX(_Rotation, _Width, _Height, tile._Left, tile._Top,
+            luma.getWidth(), luma.getHeight());
+        int offsetY = BarcodeGeometry.uprightOffsetY(_Rotation, _Width, _Height, tile._Left, tile._Top,
+            luma.getWidth(), luma.getHeight());
+        for (int j = 0; j < barcodes.size(); ++j) {
+          BarcodeGeometry.translate(barcodes.valueAt(j), offsetX, offsetY);
+        }
+        tile._Results = barcodes;
+      }
+      return null;
+    }
+  }
+}
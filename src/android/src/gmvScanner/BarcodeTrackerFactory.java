@@ -1,10 +1,5 @@
 package tl.cordova.google.mobile.vision.scanner;
 
-// ----------------------------------------------------------------------------
-// |  Android Imports
-// ----------------------------------------------------------------------------
-import android.content.Context;
-
 // ----------------------------------------------------------------------------
 // |  Google Imports
 // ----------------------------------------------------------------------------
@@ -25,22 +20,34 @@ class BarcodeTrackerFactory implements MultiProcessor.Factory<Barcode> {
   // ----------------------------------------------------------------------------
   // | Private Properties
   // ----------------------------------------------------------------------------
-  private GraphicOverlay<BarcodeGraphic> _GraphicOverlay;
-  private Context                        _Context       ;
+  private GraphicOverlay<BarcodeGraphic>             _GraphicOverlay;
+  private BarcodeGraphicTracker.BarcodeUpdateListener _Listener      ;
 
-  public BarcodeTrackerFactory(GraphicOverlay<BarcodeGraphic> p_GraphicOverlay, Context p_Context) {
+  public BarcodeTrackerFactory(GraphicOverlay<BarcodeGraphic> p_GraphicOverlay,
+      BarcodeGraphicTracker.BarcodeUpdateListener p_Listener) {
     this._GraphicOverlay = p_GraphicOverlay;
-    this._Context        = p_Context       ;
+    this._Listener       = p_Listener      ;
   }
 
   // ----------------------------------------------------------------------------
   // |  Public Functions
   // ----------------------------------------------------------------------------  
+  /**
+   * Points the trackers created from now on at another overlay and listener,
+   * e.g. when a warm scanner session moves on to a new capture activity. Must
+   * not be called while the detector is running.
+   */
+  public void setTarget(GraphicOverlay<BarcodeGraphic> p_GraphicOverlay,
+      BarcodeGraphicTracker.BarcodeUpdateListener p_Listener) {
+    this._GraphicOverlay = p_GraphicOverlay;
+    this._Listener       = p_Listener      ;
+  }
+
   @Override
   public Tracker<Barcode> create(Barcode p_Barcode) {
     BarcodeGraphic graphic = new BarcodeGraphic(_GraphicOverlay);
 
-    return new BarcodeGraphicTracker(_GraphicOverlay, graphic, _Context);
+    return new BarcodeGraphicTracker(_GraphicOverlay, graphic, _Listener);
   }
 
   // ----------------------------------------------------------------------------
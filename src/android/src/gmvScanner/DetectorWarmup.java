@@ -0,0 +1,201 @@
+package tl.cordova.google.mobile.vision.scanner;
+
+// ----------------------------------------------------------------------------
+// |  Android Imports
+// ----------------------------------------------------------------------------
+import android.content.Context;
+import android.util.Log;
+
+// ----------------------------------------------------------------------------
+// |  Google Imports
+// ----------------------------------------------------------------------------
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.barcode.Barcode;
+import com.google.android.gms.vision.barcode.BarcodeDetector;
+
+// ----------------------------------------------------------------------------
+// |  Java Imports
+// ----------------------------------------------------------------------------
+import java.util.ArrayList;
+import java.util.List;
+
+// Builds a barcode detector on a background thread as soon as the plugin is
+// loaded. The first detector of a process loads, and possibly downloads, the
+// native libraries of Mobile Vision, which would otherwise happen when the first
+// capture activity starts, and leave it detecting on frames for nothing until
+// isOperational() turns true. The detector itself is handed to the first scan
+// that asks for all formats as soon as it is built; a second one is polled for
+// readiness, so that the warm-up never touches a detector a scan owns. Scans
+// with other formats build their own, which is cheap once the libraries are
+// loaded. A warm-up that finishes after release() releases what it built.
+final class DetectorWarmup {
+  // ----------------------------------------------------------------------------
+  // | Helpers
+  // ----------------------------------------------------------------------------
+  interface Listener {
+    /**
+     * Called on the warm-up thread, or on the calling one if the warm-up is over
+     * already. p_Operational is false if the libraries did not become available
+     * within MAX_WAIT_MILLIS, or if the warm-up was released first.
+     */
+    void onReady(boolean p_Operational);
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Public Properties
+  // ----------------------------------------------------------------------------
+  static final int ALL_FORMATS = Barcode.CODE_128 | Barcode.CODE_39 | Barcode.CODE_93 | Barcode.CODABAR
+      | Barcode.DATA_MATRIX | Barcode.EAN_13 | Barcode.EAN_8 | Barcode.ITF | Barcode.QR_CODE | Barcode.UPC_A
+      | Barcode.UPC_E | Barcode.PDF417 | Barcode.AZTEC;
+
+  // ----------------------------------------------------------------------------
+  // | Private Properties
+  // ----------------------------------------------------------------------------
+  private static final String TAG             = "DetectorWarmup";
+  private static final long   POLL_MILLIS     = 250             ;
+  private static final long   MAX_WAIT_MILLIS = 60000           ;
+
+  private static final Object         _Lock      = new Object()     ;
+  private static final List<Listener> _Listeners = new ArrayList<>();
+  private static Thread               _Thread                       ;
+  private static Detector<Barcode>    _Detector                     ;
+  private static Boolean              _Operational                  ;
+
+  private DetectorWarmup() {
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Public Functions
+  // ----------------------------------------------------------------------------
+
+  /**
+   * Starts the warm-up, unless it ran already in this process.
+   */
+  static void start(final Context p_Context) {
+    synchronized (_Lock) {
+      if (_Thread != null) {
+        return;
+      }
+
+      _Thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          warmUp(p_Context.getApplicationContext());
+        }
+      }, TAG);
+      _Thread.start();
+    }
+  }
+
+  /**
+   * Reports whether the libraries are available once the warm-up knows. A
+   * listener that waits for a warm-up that was never started waits until it
+   * is.
+   */
+  static void whenReady(Listener p_Listener) {
+    Boolean operational;
+    synchronized (_Lock) {
+      operational = _Operational;
+      if (operational == null) {
+        _Listeners.add(p_Listener);
+        return;
+      }
+    }
+    p_Listener.onReady(operational);
+  }
+
+  /**
+   * Hands over the warmed-up detector if it was built for p_Formats and nobody
+   * took it yet, or returns null. The detector may not be operational yet; see
+   * whenReady().
+   */
+  static Detector<Barcode> take(int p_Formats) {
+    synchronized (_Lock) {
+      if (p_Formats != ALL_FORMATS || _Detector == null) {
+        return null;
+      }
+
+      Detector<Barcode> detector = _Detector;
+      _Detector = null;
+      return detector;
+    }
+  }
+
+  /**
+   * Releases the warmed-up detector and ends the warm-up, so that start() runs
+   * it again. Listeners still waiting are told the detector is not operational.
+   */
+  static void release() {
+    List<Listener> listeners;
+    synchronized (_Lock) {
+      if (_Thread != null) {
+        _Thread.interrupt();
+        _Thread = null;
+      }
+      _Operational = null;
+      if (_Detector != null) {
+        _Detector.release();
+        _Detector = null;
+      }
+      listeners = new ArrayList<>(_Listeners);
+      _Listeners.clear();
+    }
+    for (Listener listener : listeners) {
+      listener.onReady(false);
+    }
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Private Functions
+  // ----------------------------------------------------------------------------
+  private static void warmUp(Context p_Context) {
+    long start = System.currentTimeMillis();
+    BarcodeDetector.Builder builder = new BarcodeDetector.Builder(p_Context).setBarcodeFormats(ALL_FORMATS);
+
+    Detector<Barcode> detector = builder.build();
+    synchronized (_Lock) {
+      if (isReleased()) {
+        detector.release();
+        return;
+      }
+      _Detector = detector;
+    }
+
+    Detector<Barcode> probe = builder.build();
+    boolean operational = probe.isOperational();
+    try {
+      while (!operational && System.currentTimeMillis() - start < MAX_WAIT_MILLIS) {
+        Thread.sleep(POLL_MILLIS);
+        operational = probe.isOperational();
+      }
+    } catch (InterruptedException e) {
+      Log.d(TAG, "Detector warm-up interrupted.");
+    } finally {
+      probe.release();
+    }
+    Log.d(TAG, "Detector " + (operational ? "ready" : "not operational") + " after "
+        + (System.currentTimeMillis() - start) + " ms.");
+
+    List<Listener> listeners;
+    synchronized (_Lock) {
+      if (isReleased()) {
+        // release() released the detector and told the listeners.
+        return;
+      }
+      _Operational = operational;
+      listeners = new ArrayList<>(_Listeners);
+      _Listeners.clear();
+    }
+    for (Listener listener : listeners) {
+      listener.onReady(operational);
+    }
+  }
+
+  /**
+   * Whether release() ended the warm-up running on the calling thread. Called
+   * with the lock held.
+   */
+  private static boolean isReleased() {
+    return _Thread != Thread.currentThread();
+  }
+}
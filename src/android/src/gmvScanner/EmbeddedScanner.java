@@ -0,0 +1,224 @@
+package tl.cordova.google.mobile.vision.scanner;
+
+// ----------------------------------------------------------------------------
+// |  Android Imports
+// ----------------------------------------------------------------------------
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.Color;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import org.json.JSONObject;
+
+// ----------------------------------------------------------------------------
+// |  Google Imports
+// ----------------------------------------------------------------------------
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.MultiProcessor;
+import com.google.android.gms.vision.barcode.Barcode;
+
+// ----------------------------------------------------------------------------
+// |  Java Imports
+// ----------------------------------------------------------------------------
+import java.io.IOException;
+
+// ----------------------------------------------------------------------------
+// |  Our Imports
+// ----------------------------------------------------------------------------
+import tl.cordova.google.mobile.vision.scanner.ui.camera.CameraSource2;
+import tl.cordova.google.mobile.vision.scanner.ui.camera.CameraSourcePreview;
+import tl.cordova.google.mobile.vision.scanner.ui.camera.GraphicOverlay;
+
+// Shows the camera preview and the graphic overlay inside the Cordova activity,
+// over or under the WebView, instead of starting a capture activity. This saves
+// the activity transition, the window setup and the layout inflation a scan
+// costs otherwise. Results go through ScanResultChannel like those of the
+// capture activity. At most one scan is shown at a time. Only used from the
+// main thread, apart from the barcode callbacks.
+final class EmbeddedScanner {
+  // ----------------------------------------------------------------------------
+  // | Private Properties
+  // ----------------------------------------------------------------------------
+  private static final String TAG = "EmbeddedScanner";
+
+  private final Activity _Activity       ;
+  private final View     _WebView        ;
+  private final int      _BackgroundColor;
+  private Scan           _Scan           ;
+
+  // ----------------------------------------------------------------------------
+  // | Constructor
+  // ----------------------------------------------------------------------------
+
+  /**
+   * p_BackgroundColor is the WebView background to restore after a scan that
+   * was shown under the WebView.
+   */
+  EmbeddedScanner(Activity p_Activity, View p_WebView, int p_BackgroundColor) {
+    _Activity = p_Activity;
+    _WebView = p_WebView;
+    _BackgroundColor = p_BackgroundColor;
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Public Functions
+  // ----------------------------------------------------------------------------
+
+  /**
+   * Shows the scanner for scan p_ScanId in p_Rect, which holds x, y, width and
+   * height in CSS pixels relative to the content the WebView fills, and
+   * optionally behind. A scanner shown behind the WebView is only visible where
+   * the page is transparent. A scan that is shown already ends.
+   */
+  void show(ScannerFactory p_Factory, int p_ScanId, boolean p_Continuous, long p_DedupWindowMillis,
+      JSONObject p_Rect) {
+    hide();
+
+    final Scan scan = new Scan(p_ScanId, p_Continuous, p_DedupWindowMillis);
+    if (!ScanResultChannel.bind(p_ScanId, new Runnable() {
+      @Override
+      public void run() {
+        hideLater(scan);
+      }
+    })) {
+      // The scan was stopped before it came up.
+      return;
+    }
+
+    Context context = _Activity.getApplicationContext();
+    BarcodeTrackerFactory barcodeFactory = new BarcodeTrackerFactory(scan._Overlay, scan);
+    MultiProcessor<Barcode> processor = new MultiProcessor.Builder<>(barcodeFactory).build();
+
+    Detector<Barcode> detector = p_Factory.createDetector(context);
+    if (!detector.isOperational()) {
+      Log.w(TAG, "Detector dependencies are not yet available.");
+    }
+    scan._CameraSource = p_Factory.createCameraSource(context, detector, processor, true, false);
+    scan._Preview.ViewFinderWidth = p_Factory.getViewFinderWidth();
+    scan._Preview.ViewFinderHeight = p_Factory.getViewFinderHeight();
+
+    float density = _Activity.getResources().getDisplayMetrics().density;
+    FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(
+        Math.round((float) p_Rect.optDouble("width", 0) * density),
+        Math.round((float) p_Rect.optDouble("height", 0) * density));
+    params.leftMargin = Math.round((float) p_Rect.optDouble("x", 0) * density);
+    params.topMargin = Math.round((float) p_Rect.optDouble("y", 0) * density);
+
+    ViewGroup content = (ViewGroup) _Activity.findViewById(android.R.id.content);
+    scan._Behind = p_Rect.optBoolean("behind", false);
+    if (scan._Behind) {
+      content.addView(scan._Container, 0, params);
+      _WebView.setBackgroundColor(Color.TRANSPARENT);
+    } else {
+      content.addView(scan._Container, params);
+    }
+
+    _Scan = scan;
+    start();
+  }
+
+  /**
+   * Ends the scan that is shown, if any, and releases the camera.
+   */
+  void hide() {
+    Scan scan = _Scan;
+    if (scan == null) {
+      return;
+    }
+
+    _Scan = null;
+    scan._Preview.release();
+    ((ViewGroup) scan._Container.getParent()).removeView(scan._Container);
+    if (scan._Behind) {
+      _WebView.setBackgroundColor(_BackgroundColor);
+    }
+
+    // Does nothing if the scan is over already.
+    ScanResultChannel.cancel(scan._ScanId, "STOPPED");
+  }
+
+  /**
+   * Stops the camera while the Cordova activity is paused.
+   */
+  void pause() {
+    if (_Scan != null) {
+      _Scan._Preview.stop();
+    }
+  }
+
+  void resume() {
+    if (_Scan != null) {
+      start();
+    }
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Private Functions
+  // ----------------------------------------------------------------------------
+  private void start() throws SecurityException {
+    try {
+      _Scan._Preview.start(_Scan._CameraSource, _Scan._Overlay);
+    } catch (IOException e) {
+      Log.e(TAG, "Unable to start camera source.", e);
+      hide();
+    }
+  }
+
+  private void hideLater(final Scan p_Scan) {
+    _Activity.runOnUiThread(new Runnable() {
+      @Override
+      public void run() {
+        if (_Scan == p_Scan) {
+          hide();
+        }
+      }
+    });
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Helper Classes
+  // ----------------------------------------------------------------------------
+
+  /**
+   * The views and the camera source of one shown scan.
+   */
+  private final class Scan implements BarcodeGraphicTracker.BarcodeUpdateListener {
+    private final int                            _ScanId                                           ;
+    private final boolean                        _Continuous                                       ;
+    private final BarcodeDedupCache              _Dedup                                            ;
+    private final FrameLayout                    _Container    = new FrameLayout(_Activity)        ;
+    private final CameraSourcePreview            _Preview      = new CameraSourcePreview(_Activity);
+    private final GraphicOverlay<BarcodeGraphic> _Overlay      = new GraphicOverlay<>(_Activity)   ;
+    private volatile CameraSource2               _CameraSource                                     ;
+    private boolean                              _Behind                                           ;
+
+    private Scan(int p_ScanId, boolean p_Continuous, long p_DedupWindowMillis) {
+      _ScanId = p_ScanId;
+      _Continuous = p_Continuous;
+      _Dedup = new BarcodeDedupCache(p_DedupWindowMillis);
+
+      _Container.addView(_Preview, new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+          ViewGroup.LayoutParams.MATCH_PARENT));
+      _Container.addView(_Overlay, new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+          ViewGroup.LayoutParams.MATCH_PARENT));
+      _Container.setKeepScreenOn(true);
+    }
+
+    @Override
+    public void onBarcodeDetected(Barcode p_Barcode) {
+      if (!_Dedup.isNew(p_Barcode)) {
+        return;
+      }
+
+      CameraSource2 cameraSource = _CameraSource;
+      long firstFrameNanos = (cameraSource != null) ? cameraSource.getMetrics().getFirstFrameNanos() : 0;
+      ScanResultChannel.deliver(_ScanId, p_Barcode, firstFrameNanos);
+      if (!_Continuous) {
+        hideLater(this);
+      }
+    }
+  }
+}
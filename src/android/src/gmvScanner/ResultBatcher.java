@@ -0,0 +1,120 @@
+package tl.cordova.google.mobile.vision.scanner;
+
+// ----------------------------------------------------------------------------
+// |  Android Imports
+// ----------------------------------------------------------------------------
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// ----------------------------------------------------------------------------
+// |  Google Imports
+// ----------------------------------------------------------------------------
+import com.google.android.gms.vision.barcode.Barcode;
+
+// Coalesces the barcodes of a continuous scan into one message per burst, so
+// that codes detected in quick succession share one trip over the bridge and
+// one JS callback. A batch is sent once no barcode arrived for the window, once
+// it holds the maximum number of barcodes, or once its oldest barcode waited for
+// the latency budget, whichever comes first. Each entry carries the raw value,
+// the format and the wall clock time of the detection.
+final class ResultBatcher {
+  // ----------------------------------------------------------------------------
+  // | Helpers
+  // ----------------------------------------------------------------------------
+  interface Sink {
+    void send(JSONArray p_Batch);
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Private Properties
+  // ----------------------------------------------------------------------------
+  private static final String  TAG      = "ResultBatcher"                   ;
+  private static final Handler _Handler = new Handler(Looper.getMainLooper());
+
+  private final long _WindowMillis                         ;
+  private final int  _MaxSize                              ;
+  private final long _LatencyBudgetMillis                  ;
+  private final Sink _Sink                                 ;
+  private JSONArray  _Batch               = new JSONArray();
+  private long       _FirstMillis                          ;
+
+  private final Runnable _Flush = new Runnable() {
+    @Override
+    public void run() {
+      flush();
+    }
+  };
+
+  // ----------------------------------------------------------------------------
+  // | Constructor
+  // ----------------------------------------------------------------------------
+  ResultBatcher(long p_WindowMillis, int p_MaxSize, long p_LatencyBudgetMillis, Sink p_Sink) {
+    _WindowMillis = p_WindowMillis;
+    _MaxSize = Math.max(1, p_MaxSize);
+    _LatencyBudgetMillis = p_LatencyBudgetMillis;
+    _Sink = p_Sink;
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Public Functions
+  // ----------------------------------------------------------------------------
+
+  /**
+   * Adds p_Barcode to the current batch. May be called from any thread.
+   */
+  synchronized void add(Barcode p_Barcode) {
+    JSONObject entry = new JSONObject();
+    try {
+      entry.put("value", p_Barcode.rawValue);
+      entry.put("format", p_Barcode.format);
+      entry.put("timestamp", System.currentTimeMillis());
+    } catch (JSONException e) {
+      Log.w(TAG, "Dropping barcode that cannot be serialized.", e);
+      return;
+    }
+
+    long now = SystemClock.uptimeMillis();
+    if (_Batch.length() == 0) {
+      _FirstMillis = now;
+    }
+    _Batch.put(entry);
+
+    _Handler.removeCallbacks(_Flush);
+    long budgetLeft = _FirstMillis + _LatencyBudgetMillis - now;
+    if (_Batch.length() >= _MaxSize || budgetLeft <= 0) {
+      send();
+    } else {
+      _Handler.postDelayed(_Flush, Math.min(_WindowMillis, budgetLeft));
+    }
+  }
+
+  /**
+   * Sends the current batch right away, if there is one. Called before the
+   * scan ends, so that no barcode is left behind.
+   */
+  synchronized void flush() {
+    _Handler.removeCallbacks(_Flush);
+    if (_Batch.length() > 0) {
+      send();
+    }
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Private Functions
+  // ----------------------------------------------------------------------------
+
+  /**
+   * Called with the lock held, so that batches reach the sink in order.
+   */
+  private void send() {
+    JSONArray batch = _Batch;
+    _Batch = new JSONArray();
+    _Sink.send(batch);
+  }
+}
@@ -0,0 +1,177 @@
+package tl.cordova.google.mobile.vision.scanner;
+
+// ----------------------------------------------------------------------------
+// |  Android Imports
+// ----------------------------------------------------------------------------
+import android.util.Log;
+import android.util.SparseArray;
+
+// ----------------------------------------------------------------------------
+// |  Google Imports
+// ----------------------------------------------------------------------------
+import com.google.android.gms.vision.barcode.Barcode;
+
+// Hands the outcome of a capture activity to whoever started it, within the
+// process, instead of parceling the Barcode into activity results. The plugin
+// opens a scan, passes its id to the activity in the intent, and is called back
+// with the first barcode, or, for a continuous scan, with every new barcode
+// until the scan is stopped, and otherwise with the reason the scan ended. The
+// time from opening the scan to the first camera frame and to the first result
+// is kept for the scanner metrics. Listeners are called with the lock held that
+// ends a scan, so no barcode is delivered after the scan reported its end.
+final class ScanResultChannel {
+  // ----------------------------------------------------------------------------
+  // | Helpers
+  // ----------------------------------------------------------------------------
+  interface Listener {
+    void onResult(Barcode p_Barcode);
+
+    void onCancelled(String p_Reason);
+  }
+
+  private static final class Scan {
+    private final Listener _Listener                      ;
+    private final boolean  _Continuous                    ;
+    private final long     _OpenedNanos = System.nanoTime();
+    private boolean        _Delivered                     ;
+    private Runnable       _Finisher                      ;
+
+    private Scan(Listener p_Listener, boolean p_Continuous) {
+      _Listener = p_Listener;
+      _Continuous = p_Continuous;
+    }
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Private Properties
+  // ----------------------------------------------------------------------------
+  private static final String TAG = "ScanResultChannel";
+
+  private static final SparseArray<Scan> _Scans                = new SparseArray<>();
+  private static int                     _NextId               = 0                  ;
+  private static volatile long           _TimeToFirstFrameNanos                     ;
+  private static volatile long           _TimeToResultNanos                         ;
+
+  private ScanResultChannel() {
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Public Functions
+  // ----------------------------------------------------------------------------
+
+  /**
+   * Registers a scan and returns the id the capture activity reports it under.
+   * A continuous scan takes any number of barcodes until it is stopped.
+   */
+  static int open(Listener p_Listener, boolean p_Continuous) {
+    synchronized (_Scans) {
+      int id = _NextId++;
+      _Scans.put(id, new Scan(p_Listener, p_Continuous));
+      return id;
+    }
+  }
+
+  /**
+   * Called by the capture activity with what stop() should run to close it.
+   * Returns false if the scan is over already, in which case the activity
+   * should finish right away.
+   */
+  static boolean bind(int p_Id, Runnable p_Finisher) {
+    synchronized (_Scans) {
+      Scan scan = _Scans.get(p_Id);
+      if (scan == null) {
+        return false;
+      }
+
+      scan._Finisher = p_Finisher;
+      return true;
+    }
+  }
+
+  /**
+   * Hands p_Barcode to the scan. A scan that is not continuous is completed by
+   * it, and later calls for it are ignored. p_FirstFrameNanos is the
+   * System.nanoTime() of the first camera frame of the scan, or 0 if unknown.
+   */
+  static void deliver(int p_Id, Barcode p_Barcode, long p_FirstFrameNanos) {
+    synchronized (_Scans) {
+      Scan scan = _Scans.get(p_Id);
+      if (scan == null) {
+        return;
+      }
+      if (!scan._Continuous) {
+        _Scans.remove(p_Id);
+      }
+
+      if (!scan._Delivered) {
+        scan._Delivered = true;
+        long now = System.nanoTime();
+        _TimeToFirstFrameNanos = (p_FirstFrameNanos > 0) ? p_FirstFrameNanos - scan._OpenedNanos : 0;
+        _TimeToResultNanos = now - scan._OpenedNanos;
+        Log.d(TAG, "Scan " + p_Id + ": first frame after " + _TimeToFirstFrameNanos / 1000000 + " ms, result after "
+            + _TimeToResultNanos / 1000000 + " ms.");
+      }
+
+      scan._Listener.onResult(p_Barcode);
+    }
+  }
+
+  /**
+   * Ends the scan with p_Reason and closes its capture activity.
+   */
+  static void stop(int p_Id, String p_Reason) {
+    Scan scan = end(p_Id, p_Reason);
+    if (scan == null) {
+      return;
+    }
+
+    if (scan._Finisher != null) {
+      scan._Finisher.run();
+    }
+  }
+
+  /**
+   * Ends the scan with p_Reason, unless it is over already, without touching the
+   * capture activity. Called by the activity when it closes.
+   */
+  static void cancel(int p_Id, String p_Reason) {
+    end(p_Id, p_Reason);
+  }
+
+  /**
+   * Time from opening the last scan that got a barcode to its first camera
+   * frame, or 0.
+   */
+  static long getTimeToFirstFrameNanos() {
+    return _TimeToFirstFrameNanos;
+  }
+
+  /**
+   * Time from opening the last scan that got a barcode to its first barcode, or
+   * 0.
+   */
+  static long getTimeToResultNanos() {
+    return _TimeToResultNanos;
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Private Functions
+  // ----------------------------------------------------------------------------
+
+  /**
+   * Removes the scan and reports p_Reason to its listener, in one step with
+   * respect to deliver(). Returns the scan, or null if it was over already.
+   */
+  private static Scan end(int p_Id, String p_Reason) {
+    synchronized (_Scans) {
+      Scan scan = _Scans.get(p_Id);
+      if (scan == null) {
+        return null;
+      }
+
+      _Scans.remove(p_Id);
+      scan._Listener.onCancelled(p_Reason);
+      return scan;
+    }
+  }
+}
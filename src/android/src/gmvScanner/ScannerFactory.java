@@ -0,0 +1,206 @@
+package tl.cordova.google.mobile.vision.scanner;
+
+// ----------------------------------------------------------------------------
+// |  Android Imports
+// ----------------------------------------------------------------------------
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.hardware.Camera;
+import android.os.Build;
+
+// ----------------------------------------------------------------------------
+// |  Google Imports
+// ----------------------------------------------------------------------------
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.MultiProcessor;
+import com.google.android.gms.vision.barcode.Barcode;
+import com.google.android.gms.vision.barcode.BarcodeDetector;
+
+// ----------------------------------------------------------------------------
+// |  Our Imports
+// ----------------------------------------------------------------------------
+import tl.cordova.google.mobile.vision.scanner.ui.camera.CameraSource2;
+
+// Builds the detector chain and the camera source for one set of scan
+// settings, for the capture activity as well as for the scanner embedded in
+// the Cordova activity.
+final class ScannerFactory {
+  // ----------------------------------------------------------------------------
+  // | Private Properties
+  // ----------------------------------------------------------------------------
+  private static final double TILE_OVERLAP = .2;
+
+  private final int     _Formats            ;
+  private final double  _ViewFinderWidth    ;
+  private final double  _ViewFinderHeight   ;
+  private final boolean _MultiResolution    ;
+  private final int     _DetectorWorkers    ;
+  private final int     _TileColumns        ;
+  private final int     _TileRows           ;
+  private float         _SharpnessRatio     ;
+  private float         _MotionThreshold    ;
+  private long          _MotionRecheckMillis;
+  private float         _AdaptiveMinFps     ;
+  private float         _AdaptiveMaxFps     ;
+
+  // ----------------------------------------------------------------------------
+  // | Constructor
+  // ----------------------------------------------------------------------------
+
+  /**
+   * p_DetectionTypes of 0 or 1234, the value when JS passed none, stands for
+   * Code 39 and Data Matrix. p_DetectorWorkers is capped at the number of
+   * processors.
+   */
+  ScannerFactory(int p_DetectionTypes, double p_ViewFinderWidth, double p_ViewFinderHeight,
+      boolean p_MultiResolution, int p_DetectorWorkers, int p_TileColumns, int p_TileRows) {
+    if (p_DetectionTypes == 0 || p_DetectionTypes == 1234) {
+      _Formats = Barcode.CODE_39 | Barcode.DATA_MATRIX;
+    } else {
+      _Formats = p_DetectionTypes;
+    }
+    _ViewFinderWidth = p_ViewFinderWidth;
+    _ViewFinderHeight = p_ViewFinderHeight;
+    _MultiResolution = p_MultiResolution;
+    _DetectorWorkers = Math.max(1, Math.min(p_DetectorWorkers, Runtime.getRuntime().availableProcessors()));
+    _TileColumns = p_TileColumns;
+    _TileRows = p_TileRows;
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Public Functions
+  // ----------------------------------------------------------------------------
+
+  /**
+   * Skips frames blurrier than p_Ratio times the recent average before they
+   * reach the detector; see CameraSource2.Builder.setSharpnessThreshold(). Off
+   * unless p_Ratio is between 0 and 1.
+   */
+  ScannerFactory setSharpnessThreshold(float p_Ratio) {
+    _SharpnessRatio = (p_Ratio > 0 && p_Ratio < 1) ? p_Ratio : 0;
+    return this;
+  }
+
+  /**
+   * Skips detection on static scenes without results, re-checking at least
+   * every p_RecheckMillis; see CameraSource2.Builder.setMotionSkipping(). Off
+   * unless p_Threshold is between 0 and 255 and p_RecheckMillis is positive.
+   */
+  ScannerFactory setMotionSkipping(float p_Threshold, long p_RecheckMillis) {
+    boolean enabled = p_Threshold > 0 && p_Threshold <= 255 && p_RecheckMillis > 0;
+    _MotionThreshold = enabled ? p_Threshold : 0;
+    _MotionRecheckMillis = enabled ? p_RecheckMillis : 0;
+    return this;
+  }
+
+  /**
+   * Lets the preview FPS follow the detector between p_MinFps and p_MaxFps; see
+   * CameraSource2.Builder.setAdaptiveFps(). Off unless p_MinFps is positive and
+   * not above p_MaxFps, in which case the preview runs at a fixed 15 FPS.
+   */
+  ScannerFactory setAdaptiveFps(float p_MinFps, float p_MaxFps) {
+    boolean enabled = p_MinFps > 0 && p_MaxFps >= p_MinFps;
+    _AdaptiveMinFps = enabled ? p_MinFps : 0;
+    _AdaptiveMaxFps = enabled ? p_MaxFps : 0;
+    return this;
+  }
+
+  /**
+   * Describes everything the detector chain and the camera source are built
+   * from; see ScannerSession.
+   */
+  String getSessionKey(boolean p_AutoFocus, boolean p_UseFlash) {
+    return _Formats + "|" + _ViewFinderWidth + "|" + _ViewFinderHeight + "|" + _MultiResolution + "|"
+        + _DetectorWorkers + "|" + _TileColumns + "|" + _TileRows + "|" + _SharpnessRatio + "|" + _MotionThreshold + "|"
+        + _MotionRecheckMillis + "|" + _AdaptiveMinFps + "|" + _AdaptiveMaxFps + "|" + p_AutoFocus + "|" + p_UseFlash;
+  }
+
+  double getViewFinderWidth() {
+    return _ViewFinderWidth;
+  }
+
+  double getViewFinderHeight() {
+    return _ViewFinderHeight;
+  }
+
+  /**
+   * Builds the detector chain handed to the camera source. Only the view finder
+   * area is passed to the barcode detector, optionally split into tiles and
+   * optionally trying a half resolution copy first. Every detector worker gets
+   * a chain of its own, so the processors are shared out between the workers
+   * for their tile threads, rather than each worker using all of them.
+   */
+  Detector<Barcode> createDetector(final Context p_Context) {
+    Detector<Barcode> detector;
+    if (_TileColumns * _TileRows > 1) {
+      detector = new BarcodeTileDetector(new CameraSource2.DetectorFactory<Barcode>() {
+        @Override
+        public Detector<Barcode> create() {
+          return createTileDetector(p_Context);
+        }
+      }, _TileColumns, _TileRows, TILE_OVERLAP, Math.max(1, Runtime.getRuntime().availableProcessors()
+          / _DetectorWorkers));
+    } else {
+      detector = createTileDetector(p_Context);
+    }
+
+    return new BarcodeRegionDetector(detector, _ViewFinderWidth, _ViewFinderHeight);
+  }
+
+  /**
+   * Builds the camera source around p_Detector, which must come from
+   * createDetector(). With more than one detector worker, each further worker
+   * gets a detector chain of its own.
+   */
+  @SuppressLint("InlinedApi")
+  CameraSource2 createCameraSource(final Context p_Context, Detector<Barcode> p_Detector,
+      MultiProcessor<Barcode> p_Processor, boolean p_AutoFocus, boolean p_UseFlash) {
+    CameraSource2.Builder builder = new CameraSource2.Builder(p_Context, p_Detector)
+        .setFacing(CameraSource2.CAMERA_FACING_BACK)
+        .setRequestedPreviewSize(1600, 1024)
+        .setRequestedFps(15.0f);
+
+    if (_AdaptiveMinFps > 0) {
+      builder = builder.setAdaptiveFps(_AdaptiveMinFps, _AdaptiveMaxFps);
+    }
+    if (_SharpnessRatio > 0) {
+      builder = builder.setSharpnessThreshold(_SharpnessRatio);
+    }
+    if (_MotionThreshold > 0) {
+      builder = builder.setMotionSkipping(_MotionThreshold, _MotionRecheckMillis);
+    }
+
+    if (_DetectorWorkers > 1) {
+      builder = builder.setDetectorWorkers(_DetectorWorkers, new CameraSource2.DetectorFactory<Barcode>() {
+        @Override
+        public Detector<Barcode> create() {
+          return createDetector(p_Context);
+        }
+      }, p_Processor);
+    } else {
+      p_Detector.setProcessor(p_Processor);
+    }
+
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+      builder = builder.setFocusMode(p_AutoFocus ? Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE : null);
+    }
+
+    return builder.setFlashMode(p_UseFlash ? Camera.Parameters.FLASH_MODE_TORCH : null).build();
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Private Functions
+  // ----------------------------------------------------------------------------
+  private Detector<Barcode> createTileDetector(Context p_Context) {
+    // The detector the plugin warmed up is already operational.
+    Detector<Barcode> detector = DetectorWarmup.take(_Formats);
+    if (detector == null) {
+      detector = new BarcodeDetector.Builder(p_Context).setBarcodeFormats(_Formats).build();
+    }
+    if (_MultiResolution) {
+      detector = new BarcodePyramidDetector(detector);
+    }
+
+    return detector;
+  }
+}
@@ -0,0 +1,132 @@
+package tl.cordova.google.mobile.vision.scanner;
+
+// ----------------------------------------------------------------------------
+// |  Android Imports
+// ----------------------------------------------------------------------------
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+// ----------------------------------------------------------------------------
+// |  Google Imports
+// ----------------------------------------------------------------------------
+import com.google.android.gms.vision.MultiProcessor;
+import com.google.android.gms.vision.barcode.Barcode;
+
+// ----------------------------------------------------------------------------
+// |  Our Imports
+// ----------------------------------------------------------------------------
+import tl.cordova.google.mobile.vision.scanner.ui.camera.CameraSource2;
+
+// The detector chain and camera source of a capture activity, kept warm after
+// the activity is gone so that the next scan with the same settings can skip
+// building the detector and opening and configuring the camera. At most one
+// session is parked at a time; it is released once it was idle for the period
+// the scan asked for, when a scan with other settings starts, or when the
+// plugin goes away. Only used from the main thread.
+final class ScannerSession {
+  // ----------------------------------------------------------------------------
+  // | Private Properties
+  // ----------------------------------------------------------------------------
+  private static final String  TAG      = "ScannerSession"                  ;
+  private static final Handler _Handler = new Handler(Looper.getMainLooper());
+
+  private static ScannerSession _Parked;
+
+  private final String                  _Key           ;
+  private final CameraSource2           _CameraSource  ;
+  private final BarcodeTrackerFactory   _TrackerFactory;
+  private final MultiProcessor<Barcode> _Processor     ;
+
+  private final Runnable _Expire = new Runnable() {
+    @Override
+    public void run() {
+      if (_Parked == ScannerSession.this) {
+        Log.d(TAG, "Releasing idle scanner session.");
+        _Parked = null;
+        release();
+      }
+    }
+  };
+
+  // ----------------------------------------------------------------------------
+  // | Constructor
+  // ----------------------------------------------------------------------------
+
+  /**
+   * p_Key describes the settings the detector chain and the camera source were
+   * built with; a parked session is only reused for the same key.
+   */
+  ScannerSession(String p_Key, CameraSource2 p_CameraSource, BarcodeTrackerFactory p_TrackerFactory,
+      MultiProcessor<Barcode> p_Processor) {
+    _Key = p_Key;
+    _CameraSource = p_CameraSource;
+    _TrackerFactory = p_TrackerFactory;
+    _Processor = p_Processor;
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Public Functions
+  // ----------------------------------------------------------------------------
+
+  /**
+   * Takes the parked session if it was built with p_Key. A parked session for
+   * other settings is released, since it would only hold the camera.
+   */
+  static ScannerSession resume(String p_Key) {
+    ScannerSession session = _Parked;
+    if (session == null) {
+      return null;
+    }
+
+    _Parked = null;
+    _Handler.removeCallbacks(session._Expire);
+    if (!session._Key.equals(p_Key)) {
+      session.release();
+      return null;
+    }
+
+    Log.d(TAG, "Resuming warm scanner session.");
+    return session;
+  }
+
+  /**
+   * Keeps the session for p_IdleMillis. Its camera source must be parked or
+   * stopped already, so that no frame reaches the trackers any more.
+   */
+  static void park(ScannerSession p_Session, long p_IdleMillis) {
+    releaseParked();
+
+    // The trackers of the last scan would keep barcodes that are still in view
+    // from being reported as new ones, and they hold on to the old activity.
+    p_Session._Processor.release();
+    p_Session._TrackerFactory.setTarget(null, null);
+
+    _Parked = p_Session;
+    _Handler.postDelayed(p_Session._Expire, p_IdleMillis);
+  }
+
+  static void releaseParked() {
+    ScannerSession session = _Parked;
+    if (session != null) {
+      _Parked = null;
+      _Handler.removeCallbacks(session._Expire);
+      session.release();
+    }
+  }
+
+  CameraSource2 getCameraSource() {
+    return _CameraSource;
+  }
+
+  BarcodeTrackerFactory getTrackerFactory() {
+    return _TrackerFactory;
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Private Functions
+  // ----------------------------------------------------------------------------
+  private void release() {
+    _CameraSource.release();
+  }
+}
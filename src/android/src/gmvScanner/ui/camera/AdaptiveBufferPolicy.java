@@ -0,0 +1,102 @@
+package tl.cordova.google.mobile.vision.scanner.ui.camera;
+
+// Decides when the number of preview callback buffers should change. It is fed
+// one sample per camera frame and looks at fixed windows of frames:
+//
+// - the camera ran out of buffers often while the detector kept up, so more
+//   buffers in flight would let the camera deliver more frames: grow
+// - the detector displaced most frames, or the camera has not starved for a
+//   while, so the extra buffers only hold frames that are thrown away: shrink
+//
+// Each change is one buffer and is followed by a cooldown of a few windows in
+// which no further change is made. The count at which a grow last stopped the
+// starvation is remembered, and shrinking never goes below it, so that the
+// buffer count does not oscillate between growing on a burst of starved frames
+// and shrinking back to the minimum on the quiet windows after it.
+class AdaptiveBufferPolicy {
+  // ----------------------------------------------------------------------------
+  // | Private Properties
+  // ----------------------------------------------------------------------------
+  private static final int   WINDOW_FRAMES               = 30   ;
+  private static final float GROW_STARVED_RATIO          = 0.25f;
+  private static final float GROW_MAX_DISPLACED_RATIO    = 0.10f;
+  private static final float SHRINK_DISPLACED_RATIO      = 0.50f;
+  private static final int   QUIET_WINDOWS_BEFORE_SHRINK = 3    ;
+  private static final int   COOLDOWN_WINDOWS            = 2    ;
+
+  private int     _Frames         ;
+  private int     _StarvedFrames  ;
+  private int     _DisplacedFrames;
+  private int     _QuietWindows   ;
+  private int     _CooldownWindows;
+  private boolean _Grown          ;
+  private int     _StableCount    ;
+
+  // ----------------------------------------------------------------------------
+  // | Public Functions
+  // ----------------------------------------------------------------------------
+
+  /**
+   * Records one camera frame and returns +1, -1 or 0 once a window is complete,
+   * i.e. the change to apply to the buffer count. Must always be called from
+   * the same thread.
+   */
+  int onFrame(boolean p_Starved, boolean p_Displaced, int p_BufferCount, int p_MinCount, int p_MaxCount) {
+    _Frames++;
+    if (p_Starved) {
+      _StarvedFrames++;
+    }
+    if (p_Displaced) {
+      _DisplacedFrames++;
+    }
+
+    if (_Frames < WINDOW_FRAMES) {
+      return 0;
+    }
+
+    float starvedRatio = (float) _StarvedFrames / _Frames;
+    float displacedRatio = (float) _DisplacedFrames / _Frames;
+    boolean quiet = (_StarvedFrames == 0);
+    _Frames = 0;
+    _StarvedFrames = 0;
+    _DisplacedFrames = 0;
+
+    // The first window without starvation after growing tells how many buffers
+    // the camera needs.
+    if (_Grown && quiet) {
+      _Grown = false;
+      _StableCount = p_BufferCount;
+    }
+
+    if (_CooldownWindows > 0) {
+      _CooldownWindows--;
+      return 0;
+    }
+    _QuietWindows = quiet ? _QuietWindows + 1 : 0;
+
+    if (starvedRatio >= GROW_STARVED_RATIO && displacedRatio <= GROW_MAX_DISPLACED_RATIO) {
+      if (p_BufferCount < p_MaxCount) {
+        _Grown = true;
+        return changed(1);
+      }
+      return 0;
+    }
+
+    if (displacedRatio >= SHRINK_DISPLACED_RATIO || _QuietWindows >= QUIET_WINDOWS_BEFORE_SHRINK) {
+      return changed((p_BufferCount > Math.max(p_MinCount, _StableCount)) ? -1 : 0);
+    }
+
+    return 0;
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Private Functions
+  // ----------------------------------------------------------------------------
+  private int changed(int p_Delta) {
+    if (p_Delta != 0) {
+      _QuietWindows = 0;
+      _CooldownWindows = COOLDOWN_WINDOWS;
+    }
+    return p_Delta;
+  }
+}
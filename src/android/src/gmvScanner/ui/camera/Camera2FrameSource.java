@@ -0,0 +1,502 @@
+package tl.cordova.google.mobile.vision.scanner.ui.camera;
+
+// ----------------------------------------------------------------------------
+// |  Android Imports
+// ----------------------------------------------------------------------------
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.util.Range;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+// ----------------------------------------------------------------------------
+// |  Google Imports
+// ----------------------------------------------------------------------------
+import com.google.android.gms.common.images.Size;
+
+// ----------------------------------------------------------------------------
+// |  Java Imports
+// ----------------------------------------------------------------------------
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// The Camera2 backend of CameraSource2. Frames come from an ImageReader in
+// YUV_420_888 and are handed to the frame processor as SourceFrames whose luma is
+// the Y plane of the image itself, so nothing is copied unless the plane has
+// padding at the end of its rows. Closing the image is what recycles the frame.
+//
+// The detectors only read the luma of an NV21 frame, which is laid out exactly
+// like the Y plane, so the plane is passed on as NV21 image data.
+//
+// Every frame carries the sensor timestamp of its exposure, which also shows
+// frames the camera had to drop while all images were held downstream.
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class Camera2FrameSource {
+  // ----------------------------------------------------------------------------
+  // | Helpers
+  // ----------------------------------------------------------------------------
+
+  /**
+   * Receives the frames, on the camera thread of this source.
+   */
+  interface Listener {
+    void onFrame(SourceFrame p_Frame);
+
+    void onFramesStarved(long p_Count);
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Private Properties
+  // ----------------------------------------------------------------------------
+  private static final String TAG = "Camera2FrameSource";
+
+  /**
+   * How long start() waits for the camera to open and the session to be
+   * configured.
+   */
+  private static final long OPEN_TIMEOUT_MILLIS = 2500;
+
+  private final CameraManager                  _Manager          ;
+  private final int                            _Facing           ;
+  private final int                            _RequestedWidth   ;
+  private final int                            _RequestedHeight  ;
+  private final float                          _RequestedFps     ;
+  private final int                            _MaxImages        ;
+  private final boolean                        _ContinuousFocus  ;
+  private final boolean                        _Torch            ;
+  private final Listener                       _Listener         ;
+  private final ArrayBlockingQueue<ImageFrame> _FreeFrames       ;
+  private HandlerThread                        _Thread           ;
+  private Handler                              _Handler          ;
+  private CameraDevice                         _Device           ;
+  private CameraCaptureSession                 _Session          ;
+  private ImageReader                          _Reader           ;
+  private Size                                 _PreviewSize      ;
+  private int                                  _SensorOrientation;
+  private boolean                              _FrontFacing      ;
+  private int[]                                _FpsRange         ;
+  private long                                 _FirstTimestamp   ;
+  private long                                 _LastTimestamp    ;
+  private boolean                              _WasStarved       ;
+
+  // ----------------------------------------------------------------------------
+  // | Constructor
+  // ----------------------------------------------------------------------------
+
+  /**
+   * p_Facing is one of the CameraSource2 facing constants. p_MaxImages is the
+   * number of frames that can be held at once, like the preview buffer count of
+   * the Camera1 backend.
+   */
+  Camera2FrameSource(Context p_Context, int p_Facing, int p_Width, int p_Height, float p_Fps, int p_MaxImages,
+      boolean p_ContinuousFocus, boolean p_Torch, Listener p_Listener) {
+    _Manager         = (CameraManager) p_Context.getSystemService(Context.CAMERA_SERVICE);
+    _Facing          = p_Facing         ;
+    _RequestedWidth  = p_Width          ;
+    _RequestedHeight = p_Height         ;
+    _RequestedFps    = p_Fps            ;
+    _MaxImages       = p_MaxImages      ;
+    _ContinuousFocus = p_ContinuousFocus;
+    _Torch           = p_Torch          ;
+    _Listener        = p_Listener       ;
+    _FreeFrames      = new ArrayBlockingQueue<>(p_MaxImages);
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Public Functions
+  // ----------------------------------------------------------------------------
+
+  /**
+   * Opens the camera and starts the repeating request, blocking until frames
+   * are on their way. p_Holder, if given, receives the preview as well.
+   */
+  void open(@Nullable SurfaceHolder p_Holder) throws IOException {
+    _Thread = new HandlerThread("Camera2FrameSource");
+    _Thread.start();
+    _Handler = new Handler(_Thread.getLooper());
+
+    try {
+      String cameraId = findCamera();
+      if (cameraId == null) {
+        throw new IOException("Could not find requested camera.");
+      }
+
+      CameraCharacteristics characteristics = _Manager.getCameraCharacteristics(cameraId);
+      Integer orientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+      _SensorOrientation = (orientation == null) ? 0 : orientation;
+      _FrontFacing = _Facing == CameraSource2.CAMERA_FACING_FRONT;
+
+      _PreviewSize = selectSize(characteristics);
+      if (_PreviewSize == null) {
+        throw new IOException("Could not find suitable preview size.");
+      }
+      Range<Integer> fpsRange = selectFpsRange(characteristics);
+
+      // One image more than there are frames, so that acquireLatestImage() can
+      // skip over queued images even while all frames are held downstream.
+      _Reader = ImageReader.newInstance(_PreviewSize.getWidth(), _PreviewSize.getHeight(),
+          ImageFormat.YUV_420_888, _MaxImages + 1);
+      _Reader.setOnImageAvailableListener(new ImageListener(), _Handler);
+      _FreeFrames.clear();
+      for (int i = 0; i < _MaxImages; ++i) {
+        _FreeFrames.add(new ImageFrame());
+      }
+      _FirstTimestamp = -1;
+      _WasStarved = false;
+
+      _Device = openDevice(cameraId);
+
+      List<Surface> surfaces = new ArrayList<>();
+      surfaces.add(_Reader.getSurface());
+      if (p_Holder != null) {
+        setFixedSize(p_Holder, _PreviewSize);
+        surfaces.add(p_Holder.getSurface());
+      }
+      _Session = createSession(surfaces);
+
+      CaptureRequest.Builder request = _Device.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+      for (Surface surface : surfaces) {
+        request.addTarget(surface);
+      }
+      if (fpsRange != null) {
+        request.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+        _FpsRange = new int[] { fpsRange.getLower() * 1000, fpsRange.getUpper() * 1000 };
+      }
+      if (_ContinuousFocus && supportsAfMode(characteristics, CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_PICTURE)) {
+        request.set(CaptureRequest.CONTROL_AF_MODE, CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+      }
+      if (_Torch && Boolean.TRUE.equals(characteristics.get(CameraCharacteristics.FLASH_INFO_AVAILABLE))) {
+        request.set(CaptureRequest.FLASH_MODE, CameraMetadata.FLASH_MODE_TORCH);
+      }
+      _Session.setRepeatingRequest(request.build(), null, _Handler);
+    } catch (CameraAccessException e) {
+      close();
+      throw new IOException("Could not access camera.", e);
+    } catch (IOException | RuntimeException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * Stops the camera. Frames still held downstream become invalid; recycling
+   * them afterwards is harmless.
+   */
+  void close() {
+    if (_Session != null) {
+      _Session.close();
+      _Session = null;
+    }
+    if (_Device != null) {
+      _Device.close();
+      _Device = null;
+    }
+    if (_Reader != null) {
+      _Reader.close();
+      _Reader = null;
+    }
+    if (_Thread != null) {
+      _Thread.quitSafely();
+      _Thread = null;
+      _Handler = null;
+    }
+  }
+
+  Size getPreviewSize() {
+    return _PreviewSize;
+  }
+
+  int getSensorOrientation() {
+    return _SensorOrientation;
+  }
+
+  boolean isFrontFacing() {
+    return _FrontFacing;
+  }
+
+  /**
+   * The target FPS range of the repeating request, in 1/1000 fps like the
+   * Camera1 ranges, or null if the camera did not report any.
+   */
+  @Nullable
+  int[] getFpsRange() {
+    return _FpsRange;
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Private Functions
+  // ----------------------------------------------------------------------------
+  /**
+   * setFixedSize() lays out the SurfaceView of p_Holder, which is only allowed
+   * on the main thread, and open() may run on the camera thread of
+   * CameraSource2. The surface takes the size on the next layout pass either
+   * way, so the call does not have to be waited for.
+   */
+  private static void setFixedSize(final SurfaceHolder p_Holder, final Size p_Size) {
+    if (Looper.myLooper() == Looper.getMainLooper()) {
+      p_Holder.setFixedSize(p_Size.getWidth(), p_Size.getHeight());
+      return;
+    }
+
+    new Handler(Looper.getMainLooper()).post(new Runnable() {
+      @Override
+      public void run() {
+        p_Holder.setFixedSize(p_Size.getWidth(), p_Size.getHeight());
+      }
+    });
+  }
+
+  private String findCamera() throws CameraAccessException {
+    int lensFacing = (_Facing == CameraSource2.CAMERA_FACING_FRONT) ? CameraMetadata.LENS_FACING_FRONT
+        : CameraMetadata.LENS_FACING_BACK;
+    for (String id : _Manager.getCameraIdList()) {
+      Integer facing = _Manager.getCameraCharacteristics(id).get(CameraCharacteristics.LENS_FACING);
+      if (facing != null && facing == lensFacing) {
+        return id;
+      }
+    }
+    return null;
+  }
+
+  private Size selectSize(CameraCharacteristics p_Characteristics) {
+    StreamConfigurationMap map = p_Characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+    if (map == null) {
+      return null;
+    }
+
+    android.util.Size selected = null;
+    int minDiff = Integer.MAX_VALUE;
+    for (android.util.Size size : map.getOutputSizes(ImageFormat.YUV_420_888)) {
+      int diff = Math.abs(size.getWidth() - _RequestedWidth) + Math.abs(size.getHeight() - _RequestedHeight);
+      if (diff < minDiff) {
+        selected = size;
+        minDiff = diff;
+      }
+    }
+    return (selected == null) ? null : new Size(selected.getWidth(), selected.getHeight());
+  }
+
+  private Range<Integer> selectFpsRange(CameraCharacteristics p_Characteristics) {
+    Range<Integer>[] ranges = p_Characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+    if (ranges == null) {
+      return null;
+    }
+
+    Range<Integer> selected = null;
+    float minDiff = Float.MAX_VALUE;
+    for (Range<Integer> range : ranges) {
+      float diff = Math.abs(_RequestedFps - range.getLower()) + Math.abs(_RequestedFps - range.getUpper());
+      if (diff < minDiff) {
+        selected = range;
+        minDiff = diff;
+      }
+    }
+    return selected;
+  }
+
+  private static boolean supportsAfMode(CameraCharacteristics p_Characteristics, int p_Mode) {
+    int[] modes = p_Characteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
+    if (modes == null) {
+      return false;
+    }
+    for (int mode : modes) {
+      if (mode == p_Mode) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private CameraDevice openDevice(String p_CameraId) throws CameraAccessException, IOException {
+    final CountDownLatch opened = new CountDownLatch(1);
+    final CameraDevice[] device = new CameraDevice[1];
+    _Manager.openCamera(p_CameraId, new CameraDevice.StateCallback() {
+      @Override
+      public void onOpened(CameraDevice p_Device) {
+        device[0] = p_Device;
+        opened.countDown();
+      }
+
+      @Override
+      public void onDisconnected(CameraDevice p_Device) {
+        p_Device.close();
+        opened.countDown();
+      }
+
+      @Override
+      public void onError(CameraDevice p_Device, int p_Error) {
+        Log.e(TAG, "Camera error " + p_Error);
+        p_Device.close();
+        opened.countDown();
+      }
+    }, _Handler);
+
+    await(opened, "Timed out opening the camera.");
+    if (device[0] == null) {
+      throw new IOException("Could not open camera.");
+    }
+    return device[0];
+  }
+
+  private CameraCaptureSession createSession(List<Surface> p_Surfaces) throws CameraAccessException, IOException {
+    final CountDownLatch configured = new CountDownLatch(1);
+    final CameraCaptureSession[] session = new CameraCaptureSession[1];
+    _Device.createCaptureSession(p_Surfaces, new CameraCaptureSession.StateCallback() {
+      @Override
+      public void onConfigured(CameraCaptureSession p_Session) {
+        session[0] = p_Session;
+        configured.countDown();
+      }
+
+      @Override
+      public void onConfigureFailed(CameraCaptureSession p_Session) {
+        configured.countDown();
+      }
+    }, _Handler);
+
+    await(configured, "Timed out configuring the camera.");
+    if (session[0] == null) {
+      throw new IOException("Could not configure camera.");
+    }
+    return session[0];
+  }
+
+  private static void await(CountDownLatch p_Latch, String p_Message) throws IOException {
+    try {
+      if (!p_Latch.await(OPEN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+        throw new IOException(p_Message);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(p_Message, e);
+    }
+  }
+
+  /**
+   * With every image held downstream the camera has nowhere to write and drops
+   * frames. Those show up as a gap in the sensor timestamps of the next image.
+   */
+  private void countStarvedFrames(long p_Timestamp) {
+    if (_WasStarved && _FpsRange != null && _FpsRange[1] > 0) {
+      long interval = 1000000000000L / _FpsRange[1];
+      long missed = Math.round((p_Timestamp - _LastTimestamp) / (double) interval) - 1;
+      if (missed > 0) {
+        _Listener.onFramesStarved(missed);
+      }
+    }
+    _LastTimestamp = p_Timestamp;
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Helper Classes
+  // ----------------------------------------------------------------------------
+  private class ImageListener implements ImageReader.OnImageAvailableListener {
+    @Override
+    public void onImageAvailable(ImageReader p_Reader) {
+      // Without a free ImageFrame all frames are held downstream, so the image
+      // stays queued in the reader. The next callback after a frame is recycled
+      // takes the newest image and closes the older ones, so the detector never
+      // works through a backlog of stale frames.
+      ImageFrame frame = _FreeFrames.poll();
+      if (frame == null) {
+        return;
+      }
+
+      Image image = p_Reader.acquireLatestImage();
+      if (image == null) {
+        _FreeFrames.offer(frame);
+        return;
+      }
+
+      if (_FirstTimestamp < 0) {
+        _FirstTimestamp = image.getTimestamp();
+      }
+      countStarvedFrames(image.getTimestamp());
+      _WasStarved = _FreeFrames.isEmpty();
+
+      frame.set(image);
+      _Listener.onFrame(frame);
+    }
+  }
+
+  private class ImageFrame extends SourceFrame {
+    private Image      _Image;
+    private ByteBuffer _Copy ;
+
+    void set(Image p_Image) {
+      int width = _PreviewSize.getWidth();
+      int height = _PreviewSize.getHeight();
+
+      Image.Plane plane = p_Image.getPlanes()[0];
+      ByteBuffer luma = plane.getBuffer();
+      if ((plane.getPixelStride() != 1) || (plane.getRowStride() != width)) {
+        luma = copyLuma(plane, width, height);
+      }
+
+      _Image = p_Image;
+      _TimeMillis = (p_Image.getTimestamp() - _FirstTimestamp) / 1000000;
+      setImageData(luma, width, height);
+    }
+
+    @Override
+    public void recycle() {
+      Image image = _Image;
+      _Image = null;
+      if (image != null) {
+        image.close();
+      }
+      _FreeFrames.offer(this);
+    }
+
+    /**
+     * Packs a Y plane with row padding or interleaved samples into one tightly
+     * packed buffer, which every ImageFrame allocates only once.
+     */
+    private ByteBuffer copyLuma(Image.Plane p_Plane, int p_Width, int p_Height) {
+      if (_Copy == null) {
+        _Copy = ByteBuffer.allocateDirect(p_Width * p_Height);
+      }
+
+      ByteBuffer source = p_Plane.getBuffer();
+      int rowStride = p_Plane.getRowStride();
+      int pixelStride = p_Plane.getPixelStride();
+      _Copy.clear();
+      for (int row = 0; row < p_Height; ++row) {
+        int offset = row * rowStride;
+        if (pixelStride == 1) {
+          source.limit(offset + p_Width).position(offset);
+          _Copy.put(source);
+          source.limit(source.capacity());
+        } else {
+          for (int col = 0; col < p_Width; ++col) {
+            _Copy.put(source.get(offset + col * pixelStride));
+          }
+        }
+      }
+      _Copy.flip();
+      return _Copy;
+    }
+  }
+}
@@ -0,0 +1,275 @@
+package tl.cordova.google.mobile.vision.scanner.ui.camera;
+
+// ----------------------------------------------------------------------------
+// |  Android Imports
+// ----------------------------------------------------------------------------
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.hardware.Camera;
+import android.os.Build;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// ----------------------------------------------------------------------------
+// |  Google Imports
+// ----------------------------------------------------------------------------
+import com.google.android.gms.common.images.Size;
+
+// ----------------------------------------------------------------------------
+// |  Java Imports
+// ----------------------------------------------------------------------------
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Remembers what a camera supports, so that a start does not have to query the
+// supported sizes, FPS ranges, focus and flash modes from Camera.Parameters, nor
+// redo the preview/picture aspect ratio matching, every time. The entries live in
+// the app's shared preferences and are keyed by camera id and build fingerprint,
+// so an OS update or a different device never sees stale capabilities. Entries
+// read once are also kept in memory for the lifetime of the process. An entry
+// that cannot be read, or that describes no usable FPS range, is dropped, and
+// the capabilities are queried from the camera instead.
+@SuppressWarnings("deprecation")
+class CameraCapabilityCache {
+  // ----------------------------------------------------------------------------
+  // | Helpers
+  // ----------------------------------------------------------------------------
+
+  /**
+   * The capabilities of one camera. The size pairs chosen for earlier requested
+   * preview sizes are cached with them.
+   */
+  static final class Capabilities {
+    private final List<int[]>         _FpsRanges ;
+    private final List<String>        _FocusModes;
+    private final List<String>        _FlashModes;
+    private final Map<String, Size[]> _SizePairs ;
+
+    private Capabilities(List<int[]> p_FpsRanges, List<String> p_FocusModes, List<String> p_FlashModes,
+        Map<String, Size[]> p_SizePairs) {
+      _FpsRanges  = p_FpsRanges ;
+      _FocusModes = p_FocusModes;
+      _FlashModes = p_FlashModes;
+      _SizePairs  = p_SizePairs ;
+    }
+
+    List<int[]> getFpsRanges() {
+      return _FpsRanges;
+    }
+
+    List<String> getFocusModes() {
+      return _FocusModes;
+    }
+
+    List<String> getFlashModes() {
+      return _FlashModes;
+    }
+
+    /**
+     * The preview and picture size chosen before for this requested preview
+     * size, or null. The picture size may be null itself.
+     */
+    @Nullable
+    synchronized Size[] getSizePair(int p_RequestedWidth, int p_RequestedHeight) {
+      return _SizePairs.get(p_RequestedWidth + "x" + p_RequestedHeight);
+    }
+
+    synchronized void putSizePair(int p_RequestedWidth, int p_RequestedHeight, Size p_Preview,
+        @Nullable Size p_Picture) {
+      _SizePairs.put(p_RequestedWidth + "x" + p_RequestedHeight, new Size[] { p_Preview, p_Picture });
+    }
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Private Properties
+  // ----------------------------------------------------------------------------
+  private static final String TAG         = "CameraCapabilityCache"        ;
+  private static final String PREFERENCES = "gmvScanner.cameraCapabilities";
+
+  private static final Map<String, Capabilities> _Memory = new HashMap<>();
+
+  private final SharedPreferences _Preferences;
+
+  // ----------------------------------------------------------------------------
+  // | Constructor
+  // ----------------------------------------------------------------------------
+  CameraCapabilityCache(Context p_Context) {
+    _Preferences = p_Context.getApplicationContext().getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Public Functions
+  // ----------------------------------------------------------------------------
+
+  /**
+   * The cached capabilities of the camera, or null if there are none for this
+   * camera on this build.
+   */
+  @Nullable
+  Capabilities get(int p_CameraId) {
+    String key = getKey(p_CameraId);
+    synchronized (_Memory) {
+      Capabilities capabilities = _Memory.get(key);
+      if (capabilities != null) {
+        return capabilities;
+      }
+    }
+
+    String json = _Preferences.getString(key, null);
+    if (json == null) {
+      return null;
+    }
+
+    try {
+      Capabilities capabilities = fromJSON(new JSONObject(json));
+      synchronized (_Memory) {
+        _Memory.put(key, capabilities);
+      }
+      return capabilities;
+    } catch (JSONException e) {
+      Log.w(TAG, "Dropping unreadable camera capabilities.", e);
+      remove(p_CameraId);
+      return null;
+    }
+  }
+
+  /**
+   * Reads the capabilities from the camera parameters, without caching them.
+   */
+  static Capabilities read(Camera.Parameters p_Parameters) {
+    return new Capabilities(copy(p_Parameters.getSupportedPreviewFpsRange()),
+        copy(p_Parameters.getSupportedFocusModes()), copy(p_Parameters.getSupportedFlashModes()),
+        new HashMap<String, Size[]>());
+  }
+
+  /**
+   * Reads the capabilities from the camera parameters and caches them.
+   */
+  Capabilities query(int p_CameraId, Camera.Parameters p_Parameters) {
+    Capabilities capabilities = read(p_Parameters);
+    save(p_CameraId, capabilities);
+    return capabilities;
+  }
+
+  /**
+   * Writes the capabilities, including size pairs added since, back to storage.
+   */
+  void save(int p_CameraId, Capabilities p_Capabilities) {
+    String key = getKey(p_CameraId);
+    synchronized (_Memory) {
+      _Memory.put(key, p_Capabilities);
+    }
+
+    try {
+      _Preferences.edit().putString(key, toJSON(p_Capabilities).toString()).apply();
+    } catch (JSONException e) {
+      Log.w(TAG, "Could not store camera capabilities.", e);
+    }
+  }
+
+  void remove(int p_CameraId) {
+    String key = getKey(p_CameraId);
+    synchronized (_Memory) {
+      _Memory.remove(key);
+    }
+    _Preferences.edit().remove(key).apply();
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Private Functions
+  // ----------------------------------------------------------------------------
+
+  /**
+   * The preferences key of the camera on this build. Not private, like
+   * toJSON() and fromJSON(), for the unit tests.
+   */
+  static String getKey(int p_CameraId) {
+    return p_CameraId + "|" + Build.FINGERPRINT;
+  }
+
+  private static <T> List<T> copy(@Nullable List<T> p_List) {
+    return (p_List == null) ? Collections.<T>emptyList() : Collections.unmodifiableList(new ArrayList<>(p_List));
+  }
+
+  static JSONObject toJSON(Capabilities p_Capabilities) throws JSONException {
+    JSONArray fpsRanges = new JSONArray();
+    for (int[] range : p_Capabilities._FpsRanges) {
+      fpsRanges.put(new JSONArray().put(range[0]).put(range[1]));
+    }
+
+    JSONObject sizePairs = new JSONObject();
+    synchronized (p_Capabilities) {
+      for (Map.Entry<String, Size[]> entry : p_Capabilities._SizePairs.entrySet()) {
+        JSONArray pair = new JSONArray().put(toJSON(entry.getValue()[0]));
+        if (entry.getValue()[1] != null) {
+          pair.put(toJSON(entry.getValue()[1]));
+        }
+        sizePairs.put(entry.getKey(), pair);
+      }
+    }
+
+    JSONObject json = new JSONObject();
+    json.put("fpsRanges", fpsRanges);
+    json.put("focusModes", new JSONArray(p_Capabilities._FocusModes));
+    json.put("flashModes", new JSONArray(p_Capabilities._FlashModes));
+    json.put("sizePairs", sizePairs);
+    return json;
+  }
+
+  private static JSONArray toJSON(Size p_Size) {
+    return new JSONArray().put(p_Size.getWidth()).put(p_Size.getHeight());
+  }
+
+  /**
+   * Throws if p_Json is not a usable entry.
+   */
+  static Capabilities fromJSON(JSONObject p_Json) throws JSONException {
+    List<int[]> fpsRanges = new ArrayList<>();
+    JSONArray ranges = p_Json.getJSONArray("fpsRanges");
+    for (int i = 0; i < ranges.length(); ++i) {
+      JSONArray range = ranges.getJSONArray(i);
+      int[] fpsRange = new int[] { range.getInt(0), range.getInt(1) };
+      if ((fpsRange[0] <= 0) || (fpsRange[0] > fpsRange[1])) {
+        throw new JSONException("Invalid FPS range: " + range);
+      }
+      fpsRanges.add(fpsRange);
+    }
+    // Every camera supports at least one range, so an empty list is a broken
+    // entry, which would otherwise fail every start.
+    if (fpsRanges.isEmpty()) {
+      throw new JSONException("No FPS ranges.");
+    }
+
+    Map<String, Size[]> sizePairs = new HashMap<>();
+    JSONObject pairs = p_Json.getJSONObject("sizePairs");
+    JSONArray names = pairs.names();
+    for (int i = 0; names != null && i < names.length(); ++i) {
+      JSONArray pair = pairs.getJSONArray(names.getString(i));
+      Size preview = toSize(pair.getJSONArray(0));
+      Size picture = (pair.length() > 1) ? toSize(pair.getJSONArray(1)) : null;
+      sizePairs.put(names.getString(i), new Size[] { preview, picture });
+    }
+
+    return new Capabilities(Collections.unmodifiableList(fpsRanges), toStrings(p_Json.getJSONArray("focusModes")),
+        toStrings(p_Json.getJSONArray("flashModes")), sizePairs);
+  }
+
+  private static Size toSize(JSONArray p_Json) throws JSONException {
+    return new Size(p_Json.getInt(0), p_Json.getInt(1));
+  }
+
+  private static List<String> toStrings(JSONArray p_Json) throws JSONException {
+    List<String> strings = new ArrayList<>();
+    for (int i = 0; i < p_Json.length(); ++i) {
+      strings.add(p_Json.getString(i));
+    }
+    return Collections.unmodifiableList(strings);
+  }
+}
@@ -0,0 +1,504 @@
+package tl.cordova.google.mobile.vision.scanner.ui.camera;
+
+// ----------------------------------------------------------------------------
+// |  Android Imports
+// ----------------------------------------------------------------------------
+import android.hardware.Camera;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+// ----------------------------------------------------------------------------
+// |  Java Imports
+// ----------------------------------------------------------------------------
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Applies zoom, focus, flash and FPS range changes to a running Camera1 camera
+// from the camera thread. A change only records the new value and returns a
+// future, so the UI thread and the frame pipeline never wait for the camera.
+// Changes that arrive before the camera thread gets to them are merged: only the
+// last value of each kind is applied, and all of them go to the camera in a
+// single setParameters() call on the Parameters the camera was configured with,
+// instead of a getParameters()/setParameters() round trip per change.
+//
+// If the camera refuses a merged call, the changes are retried one by one so
+// that a bad value only fails its own futures.
+//
+// Zoom follows a pinch gesture continuously. Where the camera supports it, the
+// zoom moves with startSmoothZoom(); a new level that arrives meanwhile waits,
+// together with any other change, until the running smooth zoom stops, since
+// the camera must not get a new zoom value before that. Elsewhere zoom levels
+// go through setParameters() at most every ZOOM_STEP_MILLIS.
+@SuppressWarnings("deprecation")
+class CameraParameterQueue {
+  // ----------------------------------------------------------------------------
+  // | Public Properties
+  // ----------------------------------------------------------------------------
+  static final int ZOOM       = 0;
+  static final int FOCUS_MODE = 1;
+  static final int FLASH_MODE = 2;
+  static final int FPS_RANGE  = 3;
+
+  // ----------------------------------------------------------------------------
+  // | Helpers
+  // ----------------------------------------------------------------------------
+
+  /**
+   * Told on the camera thread about every change the camera took or refused.
+   */
+  interface Listener {
+    void onApplied(int p_Kind, Object p_Value);
+
+    void onRejected(int p_Kind, Object p_Value, RuntimeException p_Error);
+  }
+
+  /**
+   * Completes with true once the change reached the camera, or with false if
+   * it was not supported, refused, or the camera was closed first. A change that
+   * was merged into a later one of the same kind completes with the outcome of
+   * that one.
+   */
+  static final class ParameterFuture implements Future<Boolean> {
+    private final CountDownLatch _Done    = new CountDownLatch(1);
+    private volatile boolean     _Applied                        ;
+
+    static ParameterFuture completed(boolean p_Applied) {
+      ParameterFuture future = new ParameterFuture();
+      future.complete(p_Applied);
+      return future;
+    }
+
+    @Override
+    public boolean cancel(boolean p_MayInterruptIfRunning) {
+      return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return false;
+    }
+
+    @Override
+    public boolean isDone() {
+      return _Done.getCount() == 0;
+    }
+
+    @Override
+    public Boolean get() throws InterruptedException {
+      _Done.await();
+      return _Applied;
+    }
+
+    @Override
+    public Boolean get(long p_Timeout, TimeUnit p_Unit) throws InterruptedException, TimeoutException {
+      if (!_Done.await(p_Timeout, p_Unit)) {
+        throw new TimeoutException();
+      }
+      return _Applied;
+    }
+
+    private synchronized void complete(boolean p_Applied) {
+      if (_Done.getCount() > 0) {
+        _Applied = p_Applied;
+        _Done.countDown();
+      }
+    }
+  }
+
+  private static final class Change {
+    private final int                   _Kind                     ;
+    private Object                      _Value                    ;
+    private final List<ParameterFuture> _Futures = new ArrayList<>();
+
+    private Change(int p_Kind) {
+      _Kind = p_Kind;
+    }
+
+    private void complete(boolean p_Applied) {
+      for (ParameterFuture future : _Futures) {
+        future.complete(p_Applied);
+      }
+    }
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Private Properties
+  // ----------------------------------------------------------------------------
+  private static final String TAG              = "CameraParameterQueue";
+  private static final int    KIND_COUNT       = 4                     ;
+  private static final long   ZOOM_STEP_MILLIS = 50                    ;
+
+  private final Camera                             _Camera                                      ;
+  private Camera.Parameters                        _Parameters                                  ;
+  private final CameraCapabilityCache.Capabilities _Capabilities                                ;
+  private final boolean                            _ZoomSupported                               ;
+  private final int                                _MaxZoom                                     ;
+  private final List<Integer>                      _ZoomRatios                                  ;
+  private final boolean                            _SmoothZoomSupported                         ;
+  private volatile int                             _Zoom                                        ;
+  private float                                    _ZoomRatio                                   ;
+  private Change                                   _SmoothZoom                                  ;
+  private long                                     _LastZoomMillis                              ;
+  private final Handler                            _Handler                                     ;
+  private final Object                             _CameraLock                                  ;
+  private final Listener                           _Listener                                    ;
+  private final Change[]                           _Pending             = new Change[KIND_COUNT];
+  private boolean                                  _FlushPosted                                 ;
+  private volatile boolean                         _Closed                                      ;
+
+  private final Runnable _Flush = new Runnable() {
+    @Override
+    public void run() {
+      flush();
+    }
+  };
+
+  // ----------------------------------------------------------------------------
+  // | Constructor
+  // ----------------------------------------------------------------------------
+
+  /**
+   * p_Parameters are the parameters the camera was last configured with; the
+   * queue keeps them and must be the only one changing the camera from now on.
+   * The camera is only touched on p_Handler, while holding p_CameraLock, so
+   * that it cannot be released under a running change.
+   */
+  CameraParameterQueue(Camera p_Camera, Camera.Parameters p_Parameters,
+      CameraCapabilityCache.Capabilities p_Capabilities, Handler p_Handler, Object p_CameraLock,
+      Listener p_Listener) {
+    _Camera = p_Camera;
+    _Parameters = p_Parameters;
+    _Capabilities = p_Capabilities;
+    _ZoomSupported = p_Parameters.isZoomSupported();
+    _MaxZoom = _ZoomSupported ? p_Parameters.getMaxZoom() : 0;
+    _ZoomRatios = _ZoomSupported ? p_Parameters.getZoomRatios() : null;
+    _SmoothZoomSupported = _ZoomSupported && p_Parameters.isSmoothZoomSupported();
+    _Zoom = _ZoomSupported ? p_Parameters.getZoom() : 0;
+    _ZoomRatio = _ZoomSupported ? _ZoomRatios.get(_Zoom) : 100;
+    _Handler = p_Handler;
+    _CameraLock = p_CameraLock;
+    _Listener = p_Listener;
+
+    if (_SmoothZoomSupported) {
+      p_Camera.setZoomChangeListener(new SmoothZoomListener());
+    }
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Public Functions
+  // ----------------------------------------------------------------------------
+  boolean isZoomSupported() {
+    return _ZoomSupported;
+  }
+
+  int getMaxZoom() {
+    return _MaxZoom;
+  }
+
+  /**
+   * The zoom level of the most recent change, which may not have reached the
+   * camera yet.
+   */
+  int getZoom() {
+    return _Zoom;
+  }
+
+  synchronized ParameterFuture setZoom(int p_Zoom) {
+    if (!_ZoomSupported) {
+      return ParameterFuture.completed(false);
+    }
+    _Zoom = Math.max(0, Math.min(_MaxZoom, p_Zoom));
+    _ZoomRatio = _ZoomRatios.get(_Zoom);
+    return submit(ZOOM, _Zoom);
+  }
+
+  /**
+   * Scales the zoom ratio by p_ScaleFactor, the change of a pinch gesture since
+   * the previous call, and moves to the zoom level closest to it. The ratio is
+   * kept between calls, so that many small factors add up even while each one
+   * is too small to reach the next level; the future of such a call completes
+   * with true right away.
+   */
+  synchronized ParameterFuture zoomBy(float p_ScaleFactor) {
+    if (!_ZoomSupported) {
+      return ParameterFuture.completed(false);
+    }
+    _ZoomRatio = Math.max(_ZoomRatios.get(0), Math.min(_ZoomRatios.get(_MaxZoom), _ZoomRatio * p_ScaleFactor));
+
+    int zoom = 0;
+    for (int i = 1; i <= _MaxZoom; ++i) {
+      if (Math.abs(_ZoomRatios.get(i) - _ZoomRatio) < Math.abs(_ZoomRatios.get(zoom) - _ZoomRatio)) {
+        zoom = i;
+      }
+    }
+    if (zoom == _Zoom) {
+      return ParameterFuture.completed(true);
+    }
+    _Zoom = zoom;
+    return submit(ZOOM, zoom);
+  }
+
+  ParameterFuture setFocusMode(String p_Mode) {
+    if (!_Capabilities.getFocusModes().contains(p_Mode)) {
+      return ParameterFuture.completed(false);
+    }
+    return submit(FOCUS_MODE, p_Mode);
+  }
+
+  ParameterFuture setFlashMode(String p_Mode) {
+    if (!_Capabilities.getFlashModes().contains(p_Mode)) {
+      return ParameterFuture.completed(false);
+    }
+    return submit(FLASH_MODE, p_Mode);
+  }
+
+  /**
+   * Called for every frame while the FPS governor wants a different range, so
+   * asking again for the range that is already pending is free.
+   */
+  void setFpsRange(int[] p_Range) {
+    synchronized (this) {
+      Change pending = _Pending[FPS_RANGE];
+      if (pending != null && pending._Value == p_Range) {
+        return;
+      }
+    }
+    submit(FPS_RANGE, p_Range);
+  }
+
+  /**
+   * Fails everything still pending; later changes complete with false right
+   * away. Called with the camera lock held, before the camera is released.
+   */
+  void close() {
+    synchronized (this) {
+      _Closed = true;
+      for (int i = 0; i < KIND_COUNT; ++i) {
+        if (_Pending[i] != null) {
+          _Pending[i].complete(false);
+          _Pending[i] = null;
+        }
+      }
+      if (_SmoothZoom != null) {
+        _SmoothZoom.complete(false);
+        _SmoothZoom = null;
+      }
+    }
+    _Handler.removeCallbacks(_Flush);
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Private Functions
+  // ----------------------------------------------------------------------------
+  private synchronized ParameterFuture submit(int p_Kind, Object p_Value) {
+    if (_Closed) {
+      return ParameterFuture.completed(false);
+    }
+
+    Change change = _Pending[p_Kind];
+    if (change == null) {
+      change = new Change(p_Kind);
+      _Pending[p_Kind] = change;
+    }
+    change._Value = p_Value;
+
+    ParameterFuture future = new ParameterFuture();
+    change._Futures.add(future);
+
+    if (!_FlushPosted) {
+      _FlushPosted = true;
+      _Handler.post(_Flush);
+    }
+    return future;
+  }
+
+  private void flush() {
+    List<Change> changes = new ArrayList<>(KIND_COUNT);
+    synchronized (this) {
+      _FlushPosted = false;
+      if (_SmoothZoom != null) {
+        // Picked up again when the smooth zoom stops.
+        return;
+      }
+
+      long zoomWait = 0;
+      if (_Pending[ZOOM] != null && !_SmoothZoomSupported) {
+        long now = SystemClock.uptimeMillis();
+        zoomWait = _LastZoomMillis + ZOOM_STEP_MILLIS - now;
+        if (zoomWait > 0) {
+          _FlushPosted = true;
+          _Handler.postDelayed(_Flush, zoomWait);
+        } else {
+          _LastZoomMillis = now;
+        }
+      }
+      for (int i = 0; i < KIND_COUNT; ++i) {
+        if (_Pending[i] != null && (i != ZOOM || zoomWait <= 0)) {
+          changes.add(_Pending[i]);
+          _Pending[i] = null;
+        }
+      }
+    }
+    if (changes.isEmpty()) {
+      return;
+    }
+
+    synchronized (_CameraLock) {
+      if (_Closed) {
+        for (Change change : changes) {
+          change.complete(false);
+        }
+        return;
+      }
+
+      Change smoothZoom = null;
+      if (_SmoothZoomSupported) {
+        for (int i = 0; i < changes.size(); ++i) {
+          if (changes.get(i)._Kind == ZOOM) {
+            smoothZoom = changes.remove(i);
+            break;
+          }
+        }
+      }
+
+      if (!changes.isEmpty()) {
+        applyAll(changes);
+      }
+      if (smoothZoom != null) {
+        startSmoothZoom(smoothZoom);
+      }
+    }
+  }
+
+  private void applyAll(List<Change> p_Changes) {
+    try {
+      for (Change change : p_Changes) {
+        apply(change);
+      }
+      _Camera.setParameters(_Parameters);
+    } catch (RuntimeException e) {
+      // Our copy now holds values the camera refused, so start over from what
+      // the camera actually has and find out which of the changes it was.
+      _Parameters = _Camera.getParameters();
+      if (p_Changes.size() == 1) {
+        reject(p_Changes.get(0), e);
+        return;
+      }
+      for (Change change : p_Changes) {
+        applyAlone(change);
+      }
+      return;
+    }
+
+    for (Change change : p_Changes) {
+      accept(change);
+    }
+  }
+
+  private void startSmoothZoom(Change p_Change) {
+    int zoom = (Integer) p_Change._Value;
+    if (zoom == _Parameters.getZoom()) {
+      p_Change.complete(true);
+      return;
+    }
+
+    synchronized (this) {
+      _SmoothZoom = p_Change;
+    }
+    try {
+      _Camera.startSmoothZoom(zoom);
+    } catch (RuntimeException e) {
+      synchronized (this) {
+        _SmoothZoom = null;
+      }
+      reject(p_Change, e);
+    }
+  }
+
+  private void applyAlone(Change p_Change) {
+    try {
+      apply(p_Change);
+      _Camera.setParameters(_Parameters);
+    } catch (RuntimeException e) {
+      _Parameters = _Camera.getParameters();
+      reject(p_Change, e);
+      return;
+    }
+    accept(p_Change);
+  }
+
+  private void apply(Change p_Change) {
+    switch (p_Change._Kind) {
+      case ZOOM:
+        _Parameters.setZoom((Integer) p_Change._Value);
+        break;
+      case FOCUS_MODE:
+        _Parameters.setFocusMode((String) p_Change._Value);
+        break;
+      case FLASH_MODE:
+        _Parameters.setFlashMode((String) p_Change._Value);
+        break;
+      case FPS_RANGE:
+        int[] range = (int[]) p_Change._Value;
+        _Parameters.setPreviewFpsRange(range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+            range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+        break;
+    }
+  }
+
+  private void accept(Change p_Change) {
+    _Listener.onApplied(p_Change._Kind, p_Change._Value);
+    p_Change.complete(true);
+  }
+
+  private void reject(Change p_Change, RuntimeException p_Error) {
+    Log.w(TAG, "Camera refused parameter change " + p_Change._Kind + ": " + p_Error);
+    if (p_Change._Kind == ZOOM) {
+      _Zoom = _Parameters.getZoom();
+    }
+    _Listener.onRejected(p_Change._Kind, p_Change._Value, p_Error);
+    p_Change.complete(false);
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Helper Classes
+  // ----------------------------------------------------------------------------
+
+  /**
+   * Keeps our copy of the parameters on the zoom level a smooth zoom passes
+   * through, and applies what was held back once it stops.
+   */
+  private class SmoothZoomListener implements Camera.OnZoomChangeListener {
+    @Override
+    public void onZoomChange(int p_Zoom, boolean p_Stopped, Camera p_Camera) {
+      synchronized (_CameraLock) {
+        if (_Closed) {
+          return;
+        }
+        _Parameters.setZoom(p_Zoom);
+        _Listener.onApplied(ZOOM, p_Zoom);
+      }
+      if (!p_Stopped) {
+        return;
+      }
+
+      Change change;
+      synchronized (CameraParameterQueue.this) {
+        change = _SmoothZoom;
+        _SmoothZoom = null;
+        if (!_FlushPosted) {
+          _FlushPosted = true;
+          _Handler.post(_Flush);
+        }
+      }
+      if (change != null) {
+        change.complete(true);
+      }
+    }
+  }
+}
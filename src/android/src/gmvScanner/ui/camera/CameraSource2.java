@@ -12,6 +12,9 @@ import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.hardware.Camera.CameraInfo;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.support.annotation.RequiresPermission;
@@ -38,9 +41,15 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 // The CameraSource send the preview frames to the barcode detector.
 @SuppressWarnings("deprecation")
@@ -53,6 +62,13 @@ public class CameraSource2 {
   @SuppressLint("InlinedApi")
   public static final int CAMERA_FACING_FRONT = CameraInfo.CAMERA_FACING_FRONT;
 
+  /**
+   * The camera API the frames are taken from. Camera2 needs Lollipop; older
+   * devices fall back to Camera1.
+   */
+  public static final int CAMERA_API_1 = 1;
+  public static final int CAMERA_API_2 = 2;
+
   // ----------------------------------------------------------------------------
   // | Private Properties
   // ----------------------------------------------------------------------------
@@ -71,22 +87,58 @@ public class CameraSource2 {
    */
   private static final float ASPECT_RATIO_TOLERANCE = 0.01f;
 
-  private Context                 _Context                                    ;
-  private final Object            _CameraLock             = new Object()      ;
-  private Camera                  _Camera                                     ;
-  private int                     _Facing                 = CAMERA_FACING_BACK;
-  private int                     _Rotation                                   ;
-  private Size                    _PreviewSize                                ;
-  private float                   _RequestedFps           = 30.0f             ;
-  private int                     _RequestedPreviewWidth  = 1024              ;
-  private int                     _RequestedPreviewHeight = 768               ;
-  private String                  _FocusMode              = null              ;
-  private String                  _FlashMode              = null              ;
-  private SurfaceView             _DummySurfaceView                           ;
-  private SurfaceTexture          _DummySurfaceTexture                        ;
-  private Thread                  _ProcessingThread                           ;
-  private FrameProcessingRunnable _FrameProcessor                             ;
-  private Map<byte[], ByteBuffer> _BytesToByteBuffer      = new HashMap<>()   ;
+  /**
+   * Bounds for the number of preview callback buffers. Two is the least that
+   * works: one frame under detection while the camera fills the other.
+   */
+  private static final int MIN_PREVIEW_BUFFERS     = 2 ;
+  private static final int MAX_PREVIEW_BUFFERS     = 16;
+  private static final int DEFAULT_PREVIEW_BUFFERS = 4 ;
+
+  private Context                       _Context                                           ;
+  private final Object                  _CameraLock             = new Object()             ;
+  private Camera                        _Camera                                            ;
+  private int                           _Facing                 = CAMERA_FACING_BACK       ;
+  private int                           _Rotation                                          ;
+  private Size                          _PreviewSize                                       ;
+  private float                         _RequestedFps           = 30.0f                    ;
+  private int                           _RequestedPreviewWidth  = 1024                     ;
+  private int                           _RequestedPreviewHeight = 768                      ;
+  private volatile String               _FocusMode              = null                     ;
+  private volatile String               _FlashMode              = null                     ;
+  private SurfaceView                   _DummySurfaceView                                  ;
+  private SurfaceTexture                _DummySurfaceTexture                               ;
+  private Thread                        _ProcessingThread                                  ;
+  private FrameProcessingRunnable       _FrameProcessor                                    ;
+  private Map<byte[], PreviewFrame>     _BytesToPreviewFrame    = new ConcurrentHashMap<>();
+  private PreviewBufferPool             _BufferPool             = new PreviewBufferPool()  ;
+  private boolean                       _BufferPoolRegistered   = false                    ;
+  private int                           _PreviewBufferCount     = DEFAULT_PREVIEW_BUFFERS  ;
+  private long                          _AdaptiveBufferBytes    = 0                        ;
+  private AdaptiveBufferPolicy          _AdaptiveBufferPolicy   = null                     ;
+  private final AtomicInteger           _BuffersInCamera        = new AtomicInteger()      ;
+  private final AtomicInteger           _BuffersToRetire        = new AtomicInteger()      ;
+  private float                         _SharpnessRatio         = 0                        ;
+  private float                         _MotionThreshold        = 0                        ;
+  private long                          _MotionRecheckMillis    = 0                        ;
+  private float                         _AdaptiveMinFps         = 0                        ;
+  private float                         _AdaptiveMaxFps         = 0                        ;
+  private volatile FpsGovernor          _FpsGovernor            = null                     ;
+  private volatile int[]                _AppliedFpsRange        = null                     ;
+  private DetectorWorkerPool<?>         _WorkerPool             = null                     ;
+  private volatile PipelineMetrics      _Metrics                = new PipelineMetrics()    ;
+  private boolean                       _WasStarved             = false                    ;
+  private long                          _LastCallbackNanos      = 0                        ;
+  private int                           _CameraApi              = CAMERA_API_1             ;
+  private Camera2FrameSource            _Camera2Source          = null                     ;
+  private HandlerThread                 _CameraThread           = null                     ;
+  private Handler                       _CameraHandler          = null                     ;
+  private final Handler                 _MainHandler                                       ;
+  private final AtomicInteger           _StartGeneration        = new AtomicInteger()      ;
+  private CameraCapabilityCache         _CapabilityCache        = null                     ;
+  private boolean                       _CapabilitiesCached     = false                    ;
+  private volatile CameraParameterQueue _ParameterQueue         = null                     ;
+  private boolean                       _Parked                 = false                    ;
 
   // ----------------------------------------------------------------------------
   // | Helpers
@@ -120,6 +172,31 @@ public class CameraSource2 {
     void onAutoFocusMoving(boolean start);
   }
 
+  /**
+   * Implemented by detectors that can tell whether the last frame they received
+   * produced any results. Lets the motion gate tell an empty scene, which may be
+   * skipped while it does not change, from one that is being tracked.
+   */
+  public interface ResultReporting {
+    boolean lastFrameHadResults();
+  }
+
+  /**
+   * Reports the outcome of startAsync() on the main thread.
+   */
+  public interface StartCallback {
+    void onStarted();
+
+    void onError(Exception error);
+  }
+
+  /**
+   * Creates the additional detector instances used by the detector workers.
+   */
+  public interface DetectorFactory<T> {
+    Detector<T> create();
+  }
+
   // ----------------------------------------------------------------------------
   // | Builder
   // ----------------------------------------------------------------------------
@@ -137,6 +214,7 @@ public class CameraSource2 {
 
       _Detector = detector;
       _CameraSource._Context = context;
+      _CameraSource._CapabilityCache = new CameraCapabilityCache(context);
     }
 
     public Builder setRequestedFps(float fps) {
@@ -147,6 +225,47 @@ public class CameraSource2 {
       return this;
     }
 
+    /**
+     * Lets the preview FPS follow the detector at runtime, between minFps and
+     * maxFps, starting from the requested FPS. The camera slows down when the
+     * detector cannot keep up and speeds up again when it has headroom.
+     */
+    public Builder setAdaptiveFps(float minFps, float maxFps) {
+      if ((minFps <= 0) || (maxFps < minFps)) {
+        throw new IllegalArgumentException("Invalid adaptive fps: " + minFps + " - " + maxFps);
+      }
+      _CameraSource._AdaptiveMinFps = minFps;
+      _CameraSource._AdaptiveMaxFps = maxFps;
+      return this;
+    }
+
+    /**
+     * Runs detection on count detector instances in parallel. The detector passed
+     * to the builder is the first one, the factory creates the others. Results
+     * are passed to the processor in frame order; processors set on the
+     * detectors themselves are not used. More workers than processors only
+     * compete for them, so count is capped at the number of processors.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Builder setDetectorWorkers(int count, DetectorFactory<T> factory, Detector.Processor<T> processor) {
+      if ((count < 1) || (factory == null) || (processor == null)) {
+        throw new IllegalArgumentException("Invalid detector workers: " + count);
+      }
+      int processors = Runtime.getRuntime().availableProcessors();
+      if (count > processors) {
+        Log.i(TAG, "Using " + processors + " detector workers instead of " + count + ", one per processor.");
+        count = processors;
+      }
+
+      List<Detector<T>> detectors = new ArrayList<>();
+      detectors.add((Detector<T>) _Detector);
+      for (int i = 1; i < count; ++i) {
+        detectors.add(factory.create());
+      }
+      _CameraSource._WorkerPool = new DetectorWorkerPool<>(detectors, processor, _CameraSource.new WorkerListener());
+      return this;
+    }
+
     public Builder setFocusMode(@FocusMode String mode) {
       _CameraSource._FocusMode = mode;
       return this;
@@ -167,6 +286,85 @@ public class CameraSource2 {
       return this;
     }
 
+    /**
+     * Number of callback buffers handed to the camera. Fast devices can get away
+     * with fewer buffers, slow ones starve the camera with too few.
+     */
+    public Builder setPreviewBufferCount(int count) {
+      if ((count < MIN_PREVIEW_BUFFERS) || (count > MAX_PREVIEW_BUFFERS)) {
+        throw new IllegalArgumentException("Invalid preview buffer count: " + count);
+      }
+      _CameraSource._PreviewBufferCount = count;
+      return this;
+    }
+
+    /**
+     * Lets the number of callback buffers follow the load at runtime, starting
+     * from the preview buffer count. The buffers never take more than
+     * maxBufferBytes in total; 0 turns the adaptive mode off.
+     */
+    public Builder setAdaptivePreviewBuffers(long maxBufferBytes) {
+      if (maxBufferBytes < 0) {
+        throw new IllegalArgumentException("Invalid buffer memory cap: " + maxBufferBytes);
+      }
+      _CameraSource._AdaptiveBufferBytes = maxBufferBytes;
+      return this;
+    }
+
+    /**
+     * Skips frames that are noticeably blurrier than what the scene recently
+     * looked like in focus. A frame is skipped when its sharpness is below
+     * ratio times the recent average; 0 disables the gate.
+     */
+    public Builder setSharpnessThreshold(float ratio) {
+      if ((ratio < 0) || (ratio >= 1)) {
+        throw new IllegalArgumentException("Invalid sharpness ratio: " + ratio);
+      }
+      _CameraSource._SharpnessRatio = ratio;
+      return this;
+    }
+
+    /**
+     * Skips detection while the scene does not change and did not contain a
+     * result the last time it was detected on. threshold is the mean absolute
+     * luma difference (0 - 255) of a small thumbnail that counts as a change, 0
+     * disables skipping. The scene is re-checked at least every recheckMillis.
+     */
+    public Builder setMotionSkipping(float threshold, long recheckMillis) {
+      if ((threshold < 0) || (threshold > 255) || (recheckMillis <= 0)) {
+        throw new IllegalArgumentException("Invalid motion skipping: " + threshold + ", " + recheckMillis + "ms");
+      }
+      _CameraSource._MotionThreshold = threshold;
+      _CameraSource._MotionRecheckMillis = recheckMillis;
+      return this;
+    }
+
+    /**
+     * Selects the camera backend. With CAMERA_API_2 the frames come from an
+     * ImageReader and the detector reads the Y plane of the camera image
+     * directly. Zoom, picture, focus and flash changes while running, adaptive
+     * FPS and adaptive preview buffers are only supported by CAMERA_API_1.
+     */
+    public Builder setCameraApi(int api) {
+      if ((api != CAMERA_API_1) && (api != CAMERA_API_2)) {
+        throw new IllegalArgumentException("Invalid camera API: " + api);
+      }
+      _CameraSource._CameraApi = api;
+      return this;
+    }
+
+    /**
+     * Whether the supported sizes, FPS ranges, focus and flash modes of the
+     * camera, and the size pair chosen for the requested preview size, are kept
+     * in the app's storage, so that later starts do not have to query them from
+     * the camera again. On by default; turning it off is mostly useful to compare
+     * the start times in the pipeline metrics.
+     */
+    public Builder setCapabilityCacheEnabled(boolean enabled) {
+      _CameraSource._CapabilityCache = enabled ? new CameraCapabilityCache(_CameraSource._Context) : null;
+      return this;
+    }
+
     public Builder setFacing(int facing) {
       if ((facing != CAMERA_FACING_BACK) && (facing != CAMERA_FACING_FRONT)) {
         throw new IllegalArgumentException("Invalid camera: " + facing);
@@ -176,6 +374,13 @@ public class CameraSource2 {
     }
     
     public CameraSource2 build() {
+      if ((_CameraSource._CameraApi == CAMERA_API_2) && (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP)) {
+        Log.i(TAG, "Camera2 is not available on this device, using Camera1.");
+        _CameraSource._CameraApi = CAMERA_API_1;
+      }
+      if (_CameraSource._AdaptiveBufferBytes > 0) {
+        _CameraSource._AdaptiveBufferPolicy = new AdaptiveBufferPolicy();
+      }
       _CameraSource._FrameProcessor = _CameraSource.new FrameProcessingRunnable(_Detector);
       return _CameraSource;
     }
@@ -185,6 +390,7 @@ public class CameraSource2 {
   // | Constructor
   // ---------------------------------------------------------------------------- 
   private CameraSource2() { // Constructor is private to force creation using the builder class.
+    _MainHandler = new Handler(Looper.getMainLooper());
   }
 
   // ----------------------------------------------------------------------------
@@ -194,32 +400,47 @@ public class CameraSource2 {
     synchronized (_CameraLock) {
       stop();
       _FrameProcessor.release();
+      if (_WorkerPool != null) {
+        _WorkerPool.release();
+      }
+
+      if (_CameraThread != null) {
+        _CameraThread.quit();
+        _CameraThread = null;
+        _CameraHandler = null;
+      }
+
+      if (_BufferPoolRegistered) {
+        _Context.getApplicationContext().unregisterComponentCallbacks(_BufferPool);
+        _BufferPoolRegistered = false;
+      }
+      _BufferPool.clear();
     }
   }
 
   @RequiresPermission(Manifest.permission.CAMERA)
   public CameraSource2 start() throws IOException {
     synchronized (_CameraLock) {
-      if (_Camera != null) {
+      long startNanos = System.nanoTime();
+      if (_Parked) {
+        resumePreview(null);
+        startProcessing(startNanos);
         return this;
       }
 
-      _Camera = createCamera();
+      if ((_Camera != null) || (_Camera2Source != null)) {
+        return this;
+      }
 
-      // SurfaceTexture was introduced in Honeycomb (11), so if we are running and
-      // old version of Android. fall back to use SurfaceView.
-      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-        _DummySurfaceTexture = new SurfaceTexture(DUMMY_TEXTURE_NAME);
-        _Camera.setPreviewTexture(_DummySurfaceTexture);
-      } else {
-        _DummySurfaceView = new SurfaceView(_Context);
-        _Camera.setPreviewDisplay(_DummySurfaceView.getHolder());
+      if (_CameraApi == CAMERA_API_2) {
+        startCamera2(null);
+        startProcessing(startNanos);
+        return this;
       }
-      _Camera.startPreview();
 
-      _ProcessingThread = new Thread(_FrameProcessor);
-      _FrameProcessor.setActive(true);
-      _ProcessingThread.start();
+      _Camera = createCamera();
+      startPreview(null);
+      startProcessing(startNanos);
     }
     return this;
   }
@@ -227,38 +448,82 @@ public class CameraSource2 {
   @RequiresPermission(Manifest.permission.CAMERA)
   public CameraSource2 start(SurfaceHolder p_SurfaceHolder) throws IOException {
     synchronized (_CameraLock) {
-      if (_Camera != null) {
+      long startNanos = System.nanoTime();
+      if (_Parked) {
+        resumePreview(p_SurfaceHolder);
+        startProcessing(startNanos);
         return this;
       }
 
-      _Camera = createCamera();
-      _Camera.setPreviewDisplay(p_SurfaceHolder);
-      _Camera.startPreview();
+      if ((_Camera != null) || (_Camera2Source != null)) {
+        return this;
+      }
+
+      if (_CameraApi == CAMERA_API_2) {
+        startCamera2(p_SurfaceHolder);
+        startProcessing(startNanos);
+        return this;
+      }
 
-      _ProcessingThread = new Thread(_FrameProcessor);
-      _FrameProcessor.setActive(true);
-      _ProcessingThread.start();
+      _Camera = createCamera();
+      startPreview(p_SurfaceHolder);
+      startProcessing(startNanos);
     }
     return this;
   }
 
-  public void stop() {
-    synchronized (_CameraLock) {
-      _FrameProcessor.setActive(false);
-      if (_ProcessingThread != null) {
+  /**
+   * Opens and configures the camera on the camera thread of this source instead
+   * of the calling one, and reports back on the main thread. The Camera1 preview
+   * callbacks are delivered on the looper of the thread that opened the camera,
+   * so they stay off the main thread as well. p_SurfaceHolder may be null to run
+   * without a visible preview. A stop() before the camera thread is done with
+   * the start cancels it; the callback is not called in that case.
+   */
+  @RequiresPermission(Manifest.permission.CAMERA)
+  public void startAsync(@Nullable final SurfaceHolder p_SurfaceHolder, @Nullable final StartCallback p_Callback) {
+    final int generation = _StartGeneration.get();
+    getCameraHandler().post(new Runnable() {
+      @Override
+      public void run() {
+        Exception error = null;
         try {
-          // Wait for the thread to complete to ensure that we can't have multiple threads
-          // executing at the same time (i.e., which would happen if we called start too
-          // quickly after stop).
-          _ProcessingThread.join();
-        } catch (InterruptedException e) {
-          Log.d(TAG, "Frame processing thread interrupted on release.");
+          if (!startOnCameraThread(generation, p_SurfaceHolder)) {
+            return;
+          }
+        } catch (IOException | RuntimeException e) {
+          error = e;
+        }
+
+        if (p_Callback != null) {
+          final Exception result = error;
+          _MainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+              if (result == null) {
+                p_Callback.onStarted();
+              } else {
+                p_Callback.onError(result);
+              }
+            }
+          });
         }
-        _ProcessingThread = null;
       }
+    });
+  }
+
+  public void stop() {
+    // Cancels a startAsync() that has not reached the camera thread yet.
+    _StartGeneration.incrementAndGet();
 
-      // clear the buffer to prevent oom exceptions
-      _BytesToByteBuffer.clear();
+    synchronized (_CameraLock) {
+      stopProcessing();
+      _Parked = false;
+
+      if (_ParameterQueue != null) {
+        _ParameterQueue.close();
+        _ParameterQueue = null;
+      }
 
       if (_Camera != null) {
         _Camera.stopPreview();
@@ -275,6 +540,66 @@ public class CameraSource2 {
         _Camera.release();
         _Camera = null;
       }
+
+      if (_Camera2Source != null) {
+        _Camera2Source.close();
+        _Camera2Source = null;
+      }
+
+      // The camera can no longer deliver frames, so a frame still parked in the
+      // pending slot belongs to a dead session. The buffers themselves go back to
+      // the pool, so that the next start() does not have to allocate them again.
+      _FrameProcessor.clearPendingFrame();
+      for (byte[] bytes : _BytesToPreviewFrame.keySet()) {
+        _BufferPool.recycle(bytes);
+      }
+      _BytesToPreviewFrame.clear();
+      _BuffersInCamera.set(0);
+      _BuffersToRetire.set(0);
+      _FpsGovernor = null;
+      _AppliedFpsRange = null;
+    }
+  }
+
+  /**
+   * Stops delivering frames like stop(), but keeps a Camera1 camera open and
+   * configured, with its buffers and parameters, so that the next start() only
+   * has to restart the preview. The camera stays unavailable to other apps until
+   * stop() or release(), so only park for a short while. With Camera2 this is
+   * the same as stop().
+   */
+  public void park() {
+    _StartGeneration.incrementAndGet();
+
+    synchronized (_CameraLock) {
+      if (_Parked) {
+        return;
+      }
+      if (_Camera == null) {
+        stop();
+        return;
+      }
+
+      stopProcessing();
+
+      // Taking the callback away also empties the camera's buffer queue, so all
+      // buffers are handed to the camera again when the preview resumes.
+      _Camera.stopPreview();
+      _Camera.setPreviewCallbackWithBuffer(null);
+      try {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+          _Camera.setPreviewTexture(null);
+        } else {
+          _Camera.setPreviewDisplay(null);
+        }
+      } catch (Exception e) {
+        Log.e(TAG, "Failed to clear camera preview: " + e);
+      }
+
+      _FrameProcessor.clearPendingFrame();
+      _BuffersInCamera.set(0);
+      _BuffersToRetire.set(0);
+      _Parked = true;
     }
   }
 
@@ -286,37 +611,82 @@ public class CameraSource2 {
     return _Facing;
   }
 
-  public int doZoom(float p_Scale) {
-    synchronized (_CameraLock) {
-      if (_Camera == null) {
-        return 0;
-      }
-      int currentZoom = 0;
-      int maxZoom;
-      Camera.Parameters parameters = _Camera.getParameters();
-      if (!parameters.isZoomSupported()) {
-        Log.w(TAG, "Zoom is not supported on this device");
-        return currentZoom;
-      }
-      maxZoom = parameters.getMaxZoom();
+  /**
+   * Number of frames that were replaced in the pending slot by a newer frame
+   * before the detector got to them.
+   */
+  public long getDisplacedFrameCount() {
+    return _FrameProcessor.getDisplacedFrameCount();
+  }
 
-      currentZoom = parameters.getZoom() + 1;
-      float newZoom;
-      if (p_Scale > 1) {
-        newZoom = currentZoom + p_Scale * (maxZoom / 10);
-      } else {
-        newZoom = currentZoom * p_Scale;
-      }
-      currentZoom = Math.round(newZoom) - 1;
-      if (currentZoom < 0) {
-        currentZoom = 0;
-      } else if (currentZoom > maxZoom) {
-        currentZoom = maxZoom;
-      }
-      parameters.setZoom(currentZoom);
-      _Camera.setParameters(parameters);
-      return currentZoom;
+  public PreviewBufferPool getBufferPool() {
+    return _BufferPool;
+  }
+
+  /**
+   * The preview FPS range the camera is running at, in 1/1000 fps, or null when
+   * the camera is not running.
+   */
+  @Nullable
+  public int[] getPreviewFpsRange() {
+    int[] range = _AppliedFpsRange;
+    return range == null ? null : range.clone();
+  }
+
+  /**
+   * Latency histograms and frame counters of the current, or last, session.
+   */
+  public PipelineMetrics getMetrics() {
+    return _Metrics;
+  }
+
+  /**
+   * Zooms relative to the zoom level of the previous call, which may still be
+   * on its way to the camera. Returns right away; the future tells whether the
+   * camera took the new level.
+   */
+  public Future<Boolean> doZoom(float p_Scale) {
+    CameraParameterQueue queue = _ParameterQueue;
+    if (queue == null) {
+      return CameraParameterQueue.ParameterFuture.completed(false);
+    }
+    if (!queue.isZoomSupported()) {
+      Log.w(TAG, "Zoom is not supported on this device");
+      return CameraParameterQueue.ParameterFuture.completed(false);
+    }
+    int maxZoom = queue.getMaxZoom();
+
+    int currentZoom = queue.getZoom() + 1;
+    float newZoom;
+    if (p_Scale > 1) {
+      newZoom = currentZoom + p_Scale * (maxZoom / 10);
+    } else {
+      newZoom = currentZoom * p_Scale;
+    }
+    return queue.setZoom(Math.round(newZoom) - 1);
+  }
+
+  /**
+   * Zooms continuously with a pinch gesture. p_ScaleFactor is the change of the
+   * gesture since the previous call, as ScaleGestureDetector reports it when
+   * onScale() returns true. Returns right away; see CameraParameterQueue for how
+   * the zoom reaches the camera.
+   */
+  public Future<Boolean> zoomBy(float p_ScaleFactor) {
+    CameraParameterQueue queue = _ParameterQueue;
+    if (queue == null) {
+      return CameraParameterQueue.ParameterFuture.completed(false);
     }
+    return queue.zoomBy(p_ScaleFactor);
+  }
+
+  /**
+   * The zoom level of the last doZoom() or zoomBy() call, or 0 while the camera
+   * is stopped.
+   */
+  public int getZoom() {
+    CameraParameterQueue queue = _ParameterQueue;
+    return (queue != null) ? queue.getZoom() : 0;
   }
 
   public void takePicture(ShutterCallback p_Shutter, PictureCallback p_Jpeg) {
@@ -337,20 +707,16 @@ public class CameraSource2 {
     return _FocusMode;
   }
 
-  public boolean setFocusMode(@FocusMode String p_Mode) {
-    synchronized (_CameraLock) {
-      if (_Camera != null && p_Mode != null) {
-        Camera.Parameters parameters = _Camera.getParameters();
-        if (parameters.getSupportedFocusModes().contains(p_Mode)) {
-          parameters.setFocusMode(p_Mode);
-          _Camera.setParameters(parameters);
-          _FocusMode = p_Mode;
-          return true;
-        }
-      }
-
-      return false;
+  /**
+   * Returns right away; the future completes with false if the mode is not
+   * supported or the camera refused it.
+   */
+  public Future<Boolean> setFocusMode(@FocusMode String p_Mode) {
+    CameraParameterQueue queue = _ParameterQueue;
+    if (queue == null || p_Mode == null) {
+      return CameraParameterQueue.ParameterFuture.completed(false);
     }
+    return queue.setFocusMode(p_Mode);
   }
 
   @Nullable
@@ -359,20 +725,16 @@ public class CameraSource2 {
     return _FlashMode;
   }
 
-  public boolean setFlashMode(@FlashMode String p_Mode) {
-    synchronized (_CameraLock) {
-      if (_Camera != null && p_Mode != null) {
-        Camera.Parameters parameters = _Camera.getParameters();
-        if (parameters.getSupportedFlashModes().contains(p_Mode)) {
-          parameters.setFlashMode(p_Mode);
-          _Camera.setParameters(parameters);
-          _FlashMode = p_Mode;
-          return true;
-        }
-      }
-
-      return false;
+  /**
+   * Returns right away; the future completes with false if the mode is not
+   * supported or the camera refused it.
+   */
+  public Future<Boolean> setFlashMode(@FlashMode String p_Mode) {
+    CameraParameterQueue queue = _ParameterQueue;
+    if (queue == null || p_Mode == null) {
+      return CameraParameterQueue.ParameterFuture.completed(false);
     }
+    return queue.setFlashMode(p_Mode);
   }
 
   public void autoFocus(@Nullable AutoFocusCallback p_Callback) {
@@ -431,27 +793,309 @@ public class CameraSource2 {
     }
   }
 
-  @SuppressLint("InlinedApi")
+  private Handler getCameraHandler() {
+    synchronized (_CameraLock) {
+      if (_CameraHandler == null) {
+        _CameraThread = new HandlerThread("CameraSource2");
+        _CameraThread.start();
+        _CameraHandler = new Handler(_CameraThread.getLooper());
+      }
+      return _CameraHandler;
+    }
+  }
+
+  /**
+   * Restarts the preview of a parked camera on p_SurfaceHolder, or on the dummy
+   * texture when it is null. Called with the camera lock held.
+   */
+  private void resumePreview(@Nullable SurfaceHolder p_SurfaceHolder) throws IOException {
+    _Parked = false;
+    _CapabilitiesCached = true;
+
+    _Camera.setPreviewCallbackWithBuffer(new CameraPreviewCallback());
+    for (byte[] bytes : _BytesToPreviewFrame.keySet()) {
+      recycleBuffer(_Camera, bytes);
+    }
+
+    if (p_SurfaceHolder != null) {
+      _Camera.setPreviewDisplay(p_SurfaceHolder);
+    } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+      if (_DummySurfaceTexture == null) {
+        _DummySurfaceTexture = new SurfaceTexture(DUMMY_TEXTURE_NAME);
+      }
+      _Camera.setPreviewTexture(_DummySurfaceTexture);
+    } else {
+      if (_DummySurfaceView == null) {
+        _DummySurfaceView = new SurfaceView(_Context);
+      }
+      _Camera.setPreviewDisplay(_DummySurfaceView.getHolder());
+    }
+    _Camera.startPreview();
+  }
+
+  /**
+   * Stops the threads that consume preview frames and waits for them. Called
+   * with the camera lock held.
+   */
+  private void stopProcessing() {
+    _FrameProcessor.setActive(false);
+    if (_ProcessingThread != null) {
+      try {
+        // Wait for the thread to complete to ensure that we can't have multiple threads
+        // executing at the same time (i.e., which would happen if we called start too
+        // quickly after stop).
+        _ProcessingThread.join();
+      } catch (InterruptedException e) {
+        Log.d(TAG, "Frame processing thread interrupted on release.");
+      }
+      _ProcessingThread = null;
+    }
+
+    if (_WorkerPool != null) {
+      _WorkerPool.stop();
+    }
+  }
+
+  /**
+   * Starts a new metrics session and the threads that consume preview frames.
+   * Called with the camera lock held, once the preview is running. p_StartNanos
+   * is when the start began, for the camera start time.
+   */
+  private void startProcessing(long p_StartNanos) {
+    long startupNanos = System.nanoTime() - p_StartNanos;
+    boolean cached = (_CameraApi == CAMERA_API_1) && _CapabilitiesCached;
+    Log.d(TAG, String.format(Locale.US, "Camera started in %.1f ms (%s).", startupNanos / 1000000.0,
+        cached ? "cached capabilities" : "queried capabilities"));
+
+    _Metrics = new PipelineMetrics();
+    _Metrics.onCameraStarted(startupNanos, cached, _BufferPool);
+    PipelineMetrics.publish(_Metrics);
+    _WasStarved = false;
+
+    // The pool holds the buffers from here until release(), across stop() and
+    // park(), which is when memory pressure most needs to reach it.
+    if (!_BufferPoolRegistered) {
+      _Context.getApplicationContext().registerComponentCallbacks(_BufferPool);
+      _BufferPoolRegistered = true;
+    }
+
+    if (_WorkerPool != null) {
+      _WorkerPool.start();
+    }
+    _ProcessingThread = new Thread(_FrameProcessor);
+    _FrameProcessor.setActive(true);
+    _ProcessingThread.start();
+  }
+
+  /**
+   * Opens the camera through Camera2. The frames are published to the frame
+   * processor from the camera thread of the source, like the Camera1 callbacks.
+   */
+  @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+  private void startCamera2(@Nullable SurfaceHolder p_SurfaceHolder) throws IOException {
+    Camera2FrameSource source = createCamera2Source();
+    source.open(p_SurfaceHolder);
+    publishCamera2(source);
+  }
+
+  @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+  private Camera2FrameSource createCamera2Source() {
+    if ((_AdaptiveMaxFps > 0) || (_AdaptiveBufferBytes > 0)) {
+      Log.i(TAG, "Adaptive fps and preview buffers are not available with Camera2.");
+    }
+
+    boolean continuousFocus = Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE.equals(_FocusMode)
+        || Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO.equals(_FocusMode);
+    boolean torch = Camera.Parameters.FLASH_MODE_TORCH.equals(_FlashMode);
+
+    return new Camera2FrameSource(_Context, _Facing, _RequestedPreviewWidth, _RequestedPreviewHeight, _RequestedFps,
+        _PreviewBufferCount, continuousFocus, torch, new Camera2Listener());
+  }
+
+  /**
+   * Makes an opened Camera2 source the one of this camera source. Called with
+   * the camera lock held.
+   */
+  @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+  private void publishCamera2(Camera2FrameSource p_Source) {
+    _Camera2Source = p_Source;
+    _PreviewSize = p_Source.getPreviewSize();
+    _Rotation = getFrameAngle(p_Source.isFrontFacing(), p_Source.getSensorOrientation()) / 90;
+    _AppliedFpsRange = p_Source.getFpsRange();
+  }
+
+  /**
+   * The start() of startAsync(). Camera.open() takes hundreds of milliseconds on
+   * some devices, and opening a Camera2 source waits for the device and the
+   * session, so both run without the camera lock, and stop(), park() and
+   * release() on the main thread do not wait for them. The camera is only
+   * configured and published under the lock if the start was not cancelled in
+   * the meantime and the preview surface is still there. Only resuming a parked
+   * camera, which just restarts its preview, runs under the lock. Returns false
+   * if the start was cancelled.
+   */
+  @RequiresPermission(Manifest.permission.CAMERA)
+  private boolean startOnCameraThread(int p_Generation, @Nullable SurfaceHolder p_SurfaceHolder) throws IOException {
+    synchronized (_CameraLock) {
+      if (p_Generation != _StartGeneration.get()) {
+        return false;
+      }
+      if (_Parked || (_Camera != null) || (_Camera2Source != null)) {
+        if (p_SurfaceHolder != null) {
+          start(p_SurfaceHolder);
+        } else {
+          start();
+        }
+        return true;
+      }
+    }
+
+    long startNanos = System.nanoTime();
+    if (_CameraApi == CAMERA_API_2) {
+      return startCamera2OnCameraThread(p_Generation, p_SurfaceHolder, startNanos);
+    }
+
+    int cameraId = getIdForRequestedCamera(_Facing);
+    Camera camera = openCamera(cameraId);
+
+    synchronized (_CameraLock) {
+      if ((p_Generation != _StartGeneration.get()) || (_Camera != null)) {
+        camera.release();
+        return (p_Generation == _StartGeneration.get());
+      }
+      if ((p_SurfaceHolder != null) && !p_SurfaceHolder.getSurface().isValid()) {
+        camera.release();
+        throw new IOException("The preview surface was destroyed while the camera opened.");
+      }
+
+      _Camera = configureCamera(cameraId, camera);
+      startPreview(p_SurfaceHolder);
+      startProcessing(startNanos);
+    }
+    return true;
+  }
+
+  @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+  private boolean startCamera2OnCameraThread(int p_Generation, @Nullable SurfaceHolder p_SurfaceHolder,
+      long p_StartNanos) throws IOException {
+    Camera2FrameSource source = createCamera2Source();
+    source.open(p_SurfaceHolder);
+
+    synchronized (_CameraLock) {
+      if ((p_Generation != _StartGeneration.get()) || (_Camera2Source != null)) {
+        source.close();
+        return (p_Generation == _StartGeneration.get());
+      }
+      if ((p_SurfaceHolder != null) && !p_SurfaceHolder.getSurface().isValid()) {
+        source.close();
+        throw new IOException("The preview surface was destroyed while the camera opened.");
+      }
+
+      publishCamera2(source);
+      startProcessing(p_StartNanos);
+    }
+    return true;
+  }
+
+  /**
+   * Hands the Camera1 preview to p_SurfaceHolder, or to a dummy surface if it is
+   * null, and starts it. Called with the camera lock held.
+   */
+  private void startPreview(@Nullable SurfaceHolder p_SurfaceHolder) throws IOException {
+    if (p_SurfaceHolder != null) {
+      _Camera.setPreviewDisplay(p_SurfaceHolder);
+    } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+      // SurfaceTexture was introduced in Honeycomb (11), so if we are running and
+      // old version of Android. fall back to use SurfaceView.
+      _DummySurfaceTexture = new SurfaceTexture(DUMMY_TEXTURE_NAME);
+      _Camera.setPreviewTexture(_DummySurfaceTexture);
+    } else {
+      _DummySurfaceView = new SurfaceView(_Context);
+      _Camera.setPreviewDisplay(_DummySurfaceView.getHolder());
+    }
+    _Camera.startPreview();
+  }
+
   private Camera createCamera() {
-    int requestedCameraId = getIdForRequestedCamera(_Facing);
-    if (requestedCameraId == -1) {
+    int cameraId = getIdForRequestedCamera(_Facing);
+    return configureCamera(cameraId, openCamera(cameraId));
+  }
+
+  private static Camera openCamera(int p_CameraId) {
+    if (p_CameraId == -1) {
       throw new RuntimeException("Could not find requested camera.");
     }
-    Camera camera = Camera.open(requestedCameraId);
+    return Camera.open(p_CameraId);
+  }
+
+  /**
+   * Applies the requested settings to p_Camera and hands it its buffers. If the
+   * camera rejects settings chosen from cached capabilities, the cache entry is
+   * dropped and the settings are chosen once more from getParameters().
+   * Releases p_Camera if that fails as well. Called with the camera lock held.
+   */
+  private Camera configureCamera(int p_CameraId, Camera p_Camera) {
+    try {
+      try {
+        return configureCameraOrThrow(p_CameraId, p_Camera);
+      } catch (RuntimeException e) {
+        if (!_CapabilitiesCached) {
+          throw e;
+        }
+        Log.w(TAG, "Camera rejected the cached capabilities, querying them again.", e);
+        _CapabilityCache.remove(p_CameraId);
+        return configureCameraOrThrow(p_CameraId, p_Camera);
+      }
+    } catch (RuntimeException e) {
+      p_Camera.release();
+      throw e;
+    }
+  }
+
+  @SuppressLint("InlinedApi")
+  private Camera configureCameraOrThrow(int p_CameraId, Camera p_Camera) {
+    // getParameters() parses the whole flattened parameter string, so it is only
+    // called once here; the supported values come from the capability cache
+    // whenever this camera was configured before on this build.
+    Camera.Parameters parameters = p_Camera.getParameters();
+    CameraCapabilityCache.Capabilities capabilities = null;
+    if (_CapabilityCache != null) {
+      capabilities = _CapabilityCache.get(p_CameraId);
+    }
+    _CapabilitiesCached = (capabilities != null);
+    if (capabilities == null) {
+      capabilities = (_CapabilityCache != null) ? _CapabilityCache.query(p_CameraId, parameters)
+          : CameraCapabilityCache.read(parameters);
+    }
 
-    SizePair sizePair = selectSizePair(camera, _RequestedPreviewWidth, _RequestedPreviewHeight);
-    if (sizePair == null) {
-      throw new RuntimeException("Could not find suitable preview size.");
+    Size[] sizes = capabilities.getSizePair(_RequestedPreviewWidth, _RequestedPreviewHeight);
+    if (sizes == null) {
+      SizePair sizePair = selectSizePair(parameters, _RequestedPreviewWidth, _RequestedPreviewHeight);
+      if (sizePair == null) {
+        throw new RuntimeException("Could not find suitable preview size.");
+      }
+      sizes = new Size[] { sizePair.previewSize(), sizePair.pictureSize() };
+      capabilities.putSizePair(_RequestedPreviewWidth, _RequestedPreviewHeight, sizes[0], sizes[1]);
+      if (_CapabilityCache != null) {
+        _CapabilityCache.save(p_CameraId, capabilities);
+      }
     }
-    Size pictureSize = sizePair.pictureSize();
-    _PreviewSize = sizePair.previewSize();
+    Size pictureSize = sizes[1];
+    _PreviewSize = sizes[0];
 
-    int[] previewFpsRange = selectPreviewFpsRange(camera, _RequestedFps);
+    int[] previewFpsRange = selectPreviewFpsRange(capabilities.getFpsRanges(), _RequestedFps);
     if (previewFpsRange == null) {
       throw new RuntimeException("Could not find suitable preview frames per second range.");
     }
 
-    Camera.Parameters parameters = camera.getParameters();
+    if (_AdaptiveMaxFps > 0) {
+      _FpsGovernor = new FpsGovernor(capabilities.getFpsRanges(), previewFpsRange, _AdaptiveMinFps,
+          _AdaptiveMaxFps);
+      if (_FpsGovernor.getTargetRange() != null) {
+        previewFpsRange = _FpsGovernor.getTargetRange();
+      }
+    }
+    _AppliedFpsRange = previewFpsRange;
 
     if (pictureSize != null) {
       parameters.setPictureSize(pictureSize.getWidth(), pictureSize.getHeight());
@@ -462,10 +1106,10 @@ public class CameraSource2 {
         previewFpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
     parameters.setPreviewFormat(ImageFormat.NV21);
 
-    setRotation(camera, parameters, requestedCameraId);
+    setRotation(p_Camera, parameters, p_CameraId);
 
     if (_FocusMode != null) {
-      if (parameters.getSupportedFocusModes().contains(_FocusMode)) {
+      if (capabilities.getFocusModes().contains(_FocusMode)) {
         parameters.setFocusMode(_FocusMode);
       } else {
         Log.i(TAG, "Camera focus mode: " + _FocusMode + " is not supported on this device.");
@@ -476,34 +1120,39 @@ public class CameraSource2 {
     _FocusMode = parameters.getFocusMode();
 
     if (_FlashMode != null) {
-      if (parameters.getSupportedFlashModes() != null) {
-        if (parameters.getSupportedFlashModes().contains(_FlashMode)) {
-          parameters.setFlashMode(_FlashMode);
-        } else {
-          Log.i(TAG, "Camera flash mode: " + _FlashMode + " is not supported on this device.");
-        }
+      if (capabilities.getFlashModes().contains(_FlashMode)) {
+        parameters.setFlashMode(_FlashMode);
+      } else if (!capabilities.getFlashModes().isEmpty()) {
+        Log.i(TAG, "Camera flash mode: " + _FlashMode + " is not supported on this device.");
       }
     }
 
     // setting _FlashMode to the one set in the params
     _FlashMode = parameters.getFlashMode();
 
-    camera.setParameters(parameters);
+    p_Camera.setParameters(parameters);
+    _ParameterQueue = new CameraParameterQueue(p_Camera, parameters, capabilities, getCameraHandler(), _CameraLock,
+        new ParameterListener());
 
-    camera.setPreviewCallbackWithBuffer(new CameraPreviewCallback());
+    p_Camera.setPreviewCallbackWithBuffer(new CameraPreviewCallback());
 
-    // Four frame buffers are needed for working with the camera:
+    // By default four frame buffers are used for working with the camera:
     //
     // one for the frame that is currently being executed upon in doing detection
     // one for the next pending frame to process immediately upon completing
     // detection
     // two for the frames that the camera uses to populate future preview images
-    camera.addCallbackBuffer(createPreviewBuffer(_PreviewSize));
-    camera.addCallbackBuffer(createPreviewBuffer(_PreviewSize));
-    camera.addCallbackBuffer(createPreviewBuffer(_PreviewSize));
-    camera.addCallbackBuffer(createPreviewBuffer(_PreviewSize));
+    for (int i = 0; i < _PreviewBufferCount; ++i) {
+      recycleBuffer(p_Camera, createPreviewBuffer(_PreviewSize));
+    }
 
-    return camera;
+    // Adaptive mode grows from the camera callback, which must not allocate a
+    // whole frame, so the buffers it may grow to are allocated here.
+    if (_AdaptiveBufferPolicy != null) {
+      _BufferPool.reserve(getPreviewBufferSize(_PreviewSize), getMaxPreviewBufferCount() - _PreviewBufferCount);
+    }
+
+    return p_Camera;
   }
 
   private static int getIdForRequestedCamera(int p_Facing) {
@@ -517,8 +1166,8 @@ public class CameraSource2 {
     return -1;
   }
 
-  private static SizePair selectSizePair(Camera p_Camera, int p_DesiredWidth, int p_DesiredHeight) {
-    List<SizePair> validPreviewSizes = generateValidPreviewSizeList(p_Camera);
+  private static SizePair selectSizePair(Camera.Parameters p_Parameters, int p_DesiredWidth, int p_DesiredHeight) {
+    List<SizePair> validPreviewSizes = generateValidPreviewSizeList(p_Parameters);
 
     SizePair selectedPair = null;
     int minDiff = Integer.MAX_VALUE;
@@ -534,10 +1183,9 @@ public class CameraSource2 {
     return selectedPair;
   }
 
-  private static List<SizePair> generateValidPreviewSizeList(Camera p_Camera) {
-    Camera.Parameters parameters = p_Camera.getParameters();
-    List<android.hardware.Camera.Size> supportedPreviewSizes = parameters.getSupportedPreviewSizes();
-    List<android.hardware.Camera.Size> supportedPictureSizes = parameters.getSupportedPictureSizes();
+  private static List<SizePair> generateValidPreviewSizeList(Camera.Parameters p_Parameters) {
+    List<android.hardware.Camera.Size> supportedPreviewSizes = p_Parameters.getSupportedPreviewSizes();
+    List<android.hardware.Camera.Size> supportedPictureSizes = p_Parameters.getSupportedPictureSizes();
     List<SizePair> validPreviewSizes = new ArrayList<>();
     for (android.hardware.Camera.Size previewSize : supportedPreviewSizes) {
       float previewAspectRatio = (float) previewSize.width / (float) previewSize.height;
@@ -561,13 +1209,12 @@ public class CameraSource2 {
     return validPreviewSizes;
   }
 
-  private int[] selectPreviewFpsRange(Camera p_Camera, float p_DesiredPreviewFps) {
+  private static int[] selectPreviewFpsRange(List<int[]> p_PreviewFpsRanges, float p_DesiredPreviewFps) {
     int desiredPreviewFpsScaled = (int) (p_DesiredPreviewFps * 1000.0f);
 
     int[] selectedFpsRange = null;
     int minDiff = Integer.MAX_VALUE;
-    List<int[]> previewFpsRangeList = p_Camera.getParameters().getSupportedPreviewFpsRange();
-    for (int[] range : previewFpsRangeList) {
+    for (int[] range : p_PreviewFpsRanges) {
       int deltaMin = desiredPreviewFpsScaled - range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
       int deltaMax = desiredPreviewFpsScaled - range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
       int diff = Math.abs(deltaMin) + Math.abs(deltaMax);
@@ -580,6 +1227,25 @@ public class CameraSource2 {
   }
 
   private void setRotation(Camera p_Camera, Camera.Parameters p_Parameters, int p_CameraId) {
+    CameraInfo cameraInfo = new CameraInfo();
+    Camera.getCameraInfo(p_CameraId, cameraInfo);
+
+    boolean front = cameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT;
+    int angle = getFrameAngle(front, cameraInfo.orientation);
+    int displayAngle = front ? (360 - angle) % 360 : angle; // compensate for the front camera being mirrored
+
+    // This corresponds to the rotation constants in {@link Frame}.
+    _Rotation = angle / 90;
+
+    p_Camera.setDisplayOrientation(displayAngle);
+    p_Parameters.setRotation(angle);
+  }
+
+  /**
+   * The angle by which the sensor image is rotated relative to the display, in
+   * degrees.
+   */
+  private int getFrameAngle(boolean p_Front, int p_SensorOrientation) {
     WindowManager windowManager = (WindowManager) _Context.getSystemService(Context.WINDOW_SERVICE);
     int degrees = 0;
     int rotation = windowManager.getDefaultDisplay().getRotation();
@@ -600,39 +1266,118 @@ public class CameraSource2 {
       Log.e(TAG, "Bad rotation value: " + rotation);
     }
 
-    CameraInfo cameraInfo = new CameraInfo();
-    Camera.getCameraInfo(p_CameraId, cameraInfo);
-
-    int angle;
-    int displayAngle;
-    if (cameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
-      angle = (cameraInfo.orientation + degrees) % 360;
-      displayAngle = (360 - angle) % 360; // compensate for it being mirrored
-    } else { // back-facing
-      angle = (cameraInfo.orientation - degrees + 360) % 360;
-      displayAngle = angle;
+    if (p_Front) {
+      return (p_SensorOrientation + degrees) % 360;
     }
-
-    // This corresponds to the rotation constants in {@link Frame}.
-    _Rotation = angle / 90;
-
-    p_Camera.setDisplayOrientation(displayAngle);
-    p_Parameters.setRotation(angle);
+    return (p_SensorOrientation - degrees + 360) % 360;
   }
 
-  private byte[] createPreviewBuffer(Size p_PreviewSize) {
+  private static int getPreviewBufferSize(Size p_PreviewSize) {
     int bitsPerPixel = ImageFormat.getBitsPerPixel(ImageFormat.NV21);
     long sizeInBits = p_PreviewSize.getHeight() * p_PreviewSize.getWidth() * bitsPerPixel;
-    int bufferSize = (int) Math.ceil(sizeInBits / 8.0d) + 1;
+    return (int) Math.ceil(sizeInBits / 8.0d) + 1;
+  }
+
+  private byte[] createPreviewBuffer(Size p_PreviewSize) {
+    return wrapPreviewBuffer(_BufferPool.acquire(getPreviewBufferSize(p_PreviewSize)), p_PreviewSize);
+  }
 
-    byte[] byteArray = new byte[bufferSize];
-    ByteBuffer buffer = ByteBuffer.wrap(byteArray);
-    if (!buffer.hasArray() || (buffer.array() != byteArray)) {
+  private byte[] wrapPreviewBuffer(byte[] p_Bytes, Size p_PreviewSize) {
+    ByteBuffer buffer = ByteBuffer.wrap(p_Bytes);
+    if (!buffer.hasArray() || (buffer.array() != p_Bytes)) {
       throw new IllegalStateException("Failed to create valid buffer for camera source.");
     }
 
-    _BytesToByteBuffer.put(byteArray, buffer);
-    return byteArray;
+    _BytesToPreviewFrame.put(p_Bytes, new PreviewFrame(p_Bytes, buffer, p_PreviewSize));
+    return p_Bytes;
+  }
+
+  /**
+   * Hands a buffer back to the camera, unless the adaptive mode decided to
+   * shrink, in which case the buffer goes back to the pool instead.
+   */
+  private void recycleBuffer(Camera p_Camera, byte[] p_Bytes) {
+    int retire = _BuffersToRetire.get();
+    while (retire > 0) {
+      if (_BuffersToRetire.compareAndSet(retire, retire - 1)) {
+        _BytesToPreviewFrame.remove(p_Bytes);
+        _BufferPool.recycle(p_Bytes);
+        return;
+      }
+      retire = _BuffersToRetire.get();
+    }
+
+    _BuffersInCamera.incrementAndGet();
+    p_Camera.addCallbackBuffer(p_Bytes);
+  }
+
+  /**
+   * Called from the camera thread for every frame. Tracks whether the camera ran
+   * out of buffers and, in adaptive mode, grows or shrinks the buffer set.
+   */
+  private void onCameraFrame(Camera p_Camera, boolean p_Displaced) {
+    boolean starved = _BuffersInCamera.decrementAndGet() <= 0;
+    countStarvedFrames(starved);
+
+    // The range is changed without restarting the preview, through the parameter
+    // queue, so this callback does not wait for the camera to take it.
+    FpsGovernor governor = _FpsGovernor;
+    CameraParameterQueue queue = _ParameterQueue;
+    if (governor != null && queue != null && governor.getTargetRange() != _AppliedFpsRange) {
+      queue.setFpsRange(governor.getTargetRange());
+    }
+
+    if (_AdaptiveBufferPolicy == null) {
+      return;
+    }
+
+    int count = _BytesToPreviewFrame.size() - _BuffersToRetire.get();
+    int delta = _AdaptiveBufferPolicy.onFrame(starved, p_Displaced, count, MIN_PREVIEW_BUFFERS,
+        getMaxPreviewBufferCount());
+    if (delta > 0) {
+      // The buffer comes from those reserved when the camera was configured; if
+      // memory pressure trimmed them, the camera stays starved rather than
+      // allocating a frame here.
+      byte[] bytes = _BufferPool.acquirePooled(getPreviewBufferSize(_PreviewSize));
+      if (bytes == null) {
+        Log.d(TAG, "Camera is starved, but no preview buffer is reserved to grow with.");
+        return;
+      }
+      Log.d(TAG, "Camera is starved, growing preview buffers to " + (count + 1));
+      recycleBuffer(p_Camera, wrapPreviewBuffer(bytes, _PreviewSize));
+    } else if (delta < 0) {
+      Log.d(TAG, "Shrinking preview buffers to " + (count - 1));
+      _BuffersToRetire.incrementAndGet();
+    }
+  }
+
+  /**
+   * The number of preview buffers adaptive mode may grow to within its byte
+   * budget.
+   */
+  private int getMaxPreviewBufferCount() {
+    int maxCount = (int) Math.min(MAX_PREVIEW_BUFFERS, _AdaptiveBufferBytes / getPreviewBufferSize(_PreviewSize));
+    return Math.max(MIN_PREVIEW_BUFFERS, maxCount);
+  }
+
+  /**
+   * Frames lost to starvation never reach a callback, so they only show as a
+   * longer than usual gap after a callback that left the camera without a
+   * buffer. The gap is measured in frame intervals at the current maximum FPS.
+   * Runs on the camera callback thread.
+   */
+  private void countStarvedFrames(boolean p_Starved) {
+    long now = System.nanoTime();
+    int[] range = _AppliedFpsRange;
+    if (_WasStarved && range != null && range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] > 0) {
+      long interval = 1000000000000L / range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
+      long missed = Math.round((now - _LastCallbackNanos) / (double) interval) - 1;
+      if (missed > 0) {
+        _Metrics.onFramesStarved(missed);
+      }
+    }
+    _WasStarved = p_Starved;
+    _LastCallbackNanos = now;
   }
 
   // ----------------------------------------------------------------------------
@@ -676,6 +1421,93 @@ public class CameraSource2 {
     }
   }
 
+  /**
+   * Bookkeeping for one camera callback buffer. There is exactly one instance per
+   * buffer and the buffer is owned either by the camera or by the frame processor,
+   * never both.
+   * <p/>
+   * The Frame handed to the detector is reused as well. Keeping one builder per
+   * buffer with the image data already attached means a steady-state frame only
+   * updates a few metadata fields instead of building a new Frame.
+   */
+  private class PreviewFrame extends SourceFrame {
+    private final byte[] _Bytes;
+
+    PreviewFrame(byte[] p_Bytes, ByteBuffer p_Data, Size p_PreviewSize) {
+      _Bytes = p_Bytes;
+      setImageData(p_Data, p_PreviewSize.getWidth(), p_PreviewSize.getHeight());
+    }
+
+    @Override
+    public void recycle() {
+      recycleBuffer(_Camera, _Bytes);
+    }
+  }
+
+  /**
+   * Feeds the results of the detector workers back into the frame processor.
+   */
+  private class WorkerListener implements DetectorWorkerPool.Listener {
+    @Override
+    public void onDetection(long p_LatencyNanos, long p_ArrivalNanos, boolean p_HadResults) {
+      _Metrics.onFrameDetected(p_LatencyNanos, System.nanoTime() - p_ArrivalNanos);
+      _FrameProcessor.onWorkerDetection(p_LatencyNanos);
+    }
+  }
+
+  /**
+   * Feeds the frames of the Camera2 backend into the frame processor.
+   */
+  private class Camera2Listener implements Camera2FrameSource.Listener {
+    @Override
+    public void onFrame(SourceFrame p_Frame) {
+      _Metrics.onFrameReceived();
+      _FrameProcessor.publishFrame(p_Frame);
+    }
+
+    @Override
+    public void onFramesStarved(long p_Count) {
+      _Metrics.onFramesStarved(p_Count);
+    }
+  }
+
+  /**
+   * Keeps the reported modes and the applied FPS range in step with what the
+   * camera actually took, and tells the frame processor about every zoom level
+   * the camera passes through. A device that refuses to change the FPS range
+   * during preview keeps its current range and the governor is turned off.
+   */
+  private class ParameterListener implements CameraParameterQueue.Listener {
+    @Override
+    public void onApplied(int p_Kind, Object p_Value) {
+      switch (p_Kind) {
+        case CameraParameterQueue.ZOOM:
+          _FrameProcessor.onZoomChanged();
+          break;
+        case CameraParameterQueue.FOCUS_MODE:
+          _FocusMode = (String) p_Value;
+          break;
+        case CameraParameterQueue.FLASH_MODE:
+          _FlashMode = (String) p_Value;
+          break;
+        case CameraParameterQueue.FPS_RANGE:
+          int[] range = (int[]) p_Value;
+          _AppliedFpsRange = range;
+          Log.d(TAG, "Preview fps range changed to " + range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX] + " - "
+              + range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+          break;
+      }
+    }
+
+    @Override
+    public void onRejected(int p_Kind, Object p_Value, RuntimeException p_Error) {
+      if (p_Kind == CameraParameterQueue.FPS_RANGE) {
+        Log.w(TAG, "Camera does not accept fps changes during preview, disabling adaptive fps.", p_Error);
+        _FpsGovernor = null;
+      }
+    }
+  }
+
   private static class SizePair {
     private Size _Preview;
     private Size _Picture;
@@ -715,23 +1547,49 @@ public class CameraSource2 {
    * pending. As soon as detection and its associated processing are done for the
    * previous frame, detection on the mostly recently received frame will
    * immediately start on the same thread.
+   * <p/>
+   * The pending frame is exchanged through a single atomic slot rather than a
+   * monitor, so the camera callback thread never blocks on the detector thread.
+   * Only the detector thread ever parks, and only it is woken up.
    */
   private class FrameProcessingRunnable implements Runnable {
     private Detector<?> _Detector;
     private long _StartTimeMillis = SystemClock.elapsedRealtime();
 
-    // This lock guards all of the member variables below.
-    private final Object _Lock = new Object();
-    private boolean _Active = true;
+    private volatile boolean _Active = true;
+    private volatile Thread _Waiter;
 
-    // These pending variables hold the state associated with the new frame awaiting
-    // processing.
-    private long _PendingTimeMillis;
+    // Single-slot "latest frame wins" exchange between the camera thread, which
+    // puts frames in, and the processing thread, which takes them out. Whoever
+    // removes a frame from the slot owns its buffer and must recycle it.
+    private final AtomicReference<SourceFrame> _PendingFrame = new AtomicReference<>();
+    private final AtomicLong _DisplacedFrames = new AtomicLong();
+
+    // Only written from the camera callback thread.
     private int _PendingFrameId = 0;
-    private ByteBuffer _PendingFrameData;
+
+    // Filters that run on the processing thread before a frame is detected on.
+    private SharpnessGate _SharpnessGate;
+    private MotionGate _MotionGate;
+
+    // Set from the camera thread when the zoom changed, so that the gates start
+    // over with the new field of view before the next frame.
+    private volatile boolean _ZoomChanged = false;
 
     FrameProcessingRunnable(Detector<?> p_Detector) {
       _Detector = p_Detector;
+      if (_SharpnessRatio > 0) {
+        _SharpnessGate = new SharpnessGate(_SharpnessRatio);
+      }
+      if (_MotionThreshold > 0) {
+        if (_WorkerPool != null) {
+          // The gate needs the outcome of a frame before it looks at the next one,
+          // which parallel workers cannot provide.
+          Log.w(TAG, "Motion skipping is not available with detector workers.");
+        } else {
+          _MotionGate = new MotionGate(_MotionThreshold, _MotionRecheckMillis);
+        }
+      }
     }
 
     /**
@@ -747,14 +1605,24 @@ public class CameraSource2 {
     }
 
     /**
-     * Marks the runnable as active/not active. Signals any blocked threads to
-     * continue.
+     * Marks the runnable as active/not active. Wakes up the processing thread so
+     * it can notice the change.
      */
     void setActive(boolean p_Active) {
-      synchronized (_Lock) {
-        _Active = p_Active;
-        _Lock.notifyAll();
-      }
+      _Active = p_Active;
+      LockSupport.unpark(_Waiter);
+    }
+
+    /**
+     * Forgets the pending frame without recycling it. Only used once the camera
+     * that owns the buffer has been released.
+     */
+    void clearPendingFrame() {
+      _PendingFrame.set(null);
+    }
+
+    long getDisplacedFrameCount() {
+      return _DisplacedFrames.get();
     }
 
     /**
@@ -763,36 +1631,53 @@ public class CameraSource2 {
      * to the frame data for future use.
      */
     void setNextFrame(byte[] p_Data, Camera p_Camera) {
-      synchronized (_Lock) {
-        if (_PendingFrameData != null) {
-          p_Camera.addCallbackBuffer(_PendingFrameData.array());
-          _PendingFrameData = null;
-        }
-
-        if (!_BytesToByteBuffer.containsKey(p_Data)) {
-          Log.d(TAG, "Skipping frame. Could not find ByteBuffer associated with the image data from the camera.");
-          return;
-        }
+      PipelineMetrics metrics = _Metrics;
+      metrics.onFrameReceived();
+
+      PreviewFrame frame = _BytesToPreviewFrame.get(p_Data);
+      if (frame == null) {
+        metrics.onBufferNotFound();
+        onCameraFrame(p_Camera, false);
+        Log.d(TAG, "Skipping frame. Could not find ByteBuffer associated with the image data from the camera.");
+        return;
+      }
 
-        // Timestamp and frame ID are maintained here, which will give downstream code
-        // some
-        // idea of the timing of frames received and when frames were dropped along the
-        // way.
-        _PendingTimeMillis = SystemClock.elapsedRealtime() - _StartTimeMillis;
-        _PendingFrameId++;
-        _PendingFrameData = _BytesToByteBuffer.get(p_Data);
+      // Timestamp and frame ID are maintained here, which will give downstream code
+      // some idea of the timing of frames received and when frames were dropped
+      // along the way. The buffer is ours until it is published below, and the
+      // atomic exchange makes these writes visible to the processing thread.
+      frame._TimeMillis = SystemClock.elapsedRealtime() - _StartTimeMillis;
+      onCameraFrame(p_Camera, publishFrame(frame));
+    }
 
-        // Notify the processor thread if it is waiting on the next frame (see below).
-        _Lock.notifyAll();
+    /**
+     * Makes a frame the pending one, recycling the frame it replaces. Called by
+     * the camera backend on its callback thread, which owns p_Frame until this
+     * call; its timestamp must already be set. Returns whether a frame was
+     * replaced.
+     */
+    boolean publishFrame(SourceFrame p_Frame) {
+      p_Frame._FrameId = ++_PendingFrameId;
+      p_Frame._ArrivalNanos = System.nanoTime();
+
+      SourceFrame displaced = _PendingFrame.getAndSet(p_Frame);
+      if (displaced != null) {
+        _DisplacedFrames.incrementAndGet();
+        _Metrics.onFrameOverwritten();
+        displaced.recycle();
       }
+
+      // Wake the processor thread if it is waiting on the next frame (see below).
+      LockSupport.unpark(_Waiter);
+      return displaced != null;
     }
 
     /**
      * As long as the processing thread is active, this executes detection on frames
      * continuously. The next pending frame is either immediately available or
-     * hasn't been received yet. Once it is available, we transfer the frame info to
-     * local variables and run detection on that frame. It immediately loops back
-     * for the next frame without pausing.
+     * hasn't been received yet. Once it is available, we take it out of the slot
+     * and run detection on that frame. It immediately loops back for the next
+     * frame without pausing.
      * <p/>
      * If detection takes longer than the time in between new frames from the
      * camera, this will mean that this loop will run without ever waiting on a
@@ -803,55 +1688,132 @@ public class CameraSource2 {
      */
     @Override
     public void run() {
-      Frame outputFrame;
-      ByteBuffer data;
+      _Waiter = Thread.currentThread();
 
       while (true) {
-        synchronized (_Lock) {
-          while (_Active && (_PendingFrameData == null)) {
-            try {
-              // Wait for the next frame to be received from the camera, since we
-              // don't have it yet.
-              _Lock.wait();
-            } catch (InterruptedException e) {
-              Log.d(TAG, "Frame processing loop terminated.", e);
-              return;
-            }
-          }
+        if (!_Active) {
+          // Exit the loop once this camera source is stopped or released. This is
+          // checked after every wake-up, to handle the case where setActive(false)
+          // had been called, triggering the termination of this loop.
+          return;
+        }
 
-          if (!_Active) {
-            // Exit the loop once this camera source is stopped or released. We check
-            // this here, immediately after the wait() above, to handle the case where
-            // setActive(false) had been called, triggering the termination of this
-            // loop.
+        SourceFrame frame = _PendingFrame.getAndSet(null);
+        if (frame == null) {
+          // Wait for the next frame to be received from the camera, since we don't
+          // have it yet. A frame published between the check above and this call
+          // leaves the permit set, so park returns immediately.
+          LockSupport.park(this);
+          if (Thread.interrupted()) {
+            Log.d(TAG, "Frame processing loop terminated.");
             return;
           }
+          continue;
+        }
 
-          outputFrame = new Frame.Builder()
-              .setImageData(_PendingFrameData, _PreviewSize.getWidth(), _PreviewSize.getHeight(), ImageFormat.NV21)
-              .setId(_PendingFrameId).setTimestampMillis(_PendingTimeMillis).setRotation(_Rotation).build();
+        PipelineMetrics metrics = _Metrics;
+        long start = System.nanoTime();
+        metrics.getQueueWait().record(start - frame._ArrivalNanos);
 
-          // Hold onto the frame data locally, so that we can use this for detection
-          // below. We need to clear _PendingFrameData to ensure that this buffer isn't
-          // recycled back to the camera before we are done using that data.
-          data = _PendingFrameData;
-          _PendingFrameData = null;
+        if (_ZoomChanged) {
+          _ZoomChanged = false;
+          resetGates();
         }
 
-        // The code below needs to run outside of synchronization, because this will
-        // allow
-        // the camera to add pending frame(s) while we are running detection on the
-        // current
-        // frame.
-
+        boolean handedOff = false;
         try {
-          _Detector.receiveFrame(outputFrame);
+          if (!shouldDetect(frame, metrics)) {
+            // Counted by shouldDetect().
+          } else if (_WorkerPool != null) {
+            // The worker that picks the frame up recycles it.
+            frame.buildFrame(_Rotation);
+            handedOff = _WorkerPool.submit(frame);
+          } else {
+            _Detector.receiveFrame(frame.buildFrame(_Rotation));
+            long end = System.nanoTime();
+            metrics.onFrameDetected(end - start, end - frame._ArrivalNanos);
+            onDetected(frame, end - start);
+          }
+        } catch (InterruptedException e) {
+          Log.d(TAG, "Frame processing loop terminated.");
+          return;
         } catch (Throwable t) {
           Log.e(TAG, "Exception thrown from receiver.", t);
         } finally {
-          _Camera.addCallbackBuffer(data.array());
+          if (!handedOff) {
+            frame.recycle();
+          }
+        }
+      }
+    }
+
+    void onZoomChanged() {
+      _ZoomChanged = true;
+    }
+
+    /**
+     * A zoomed scene neither matches the motion reference nor the sharpness the
+     * gate learned, so both would hold back frames while the zoom settles, just
+     * when the user expects a result.
+     */
+    private void resetGates() {
+      if (_MotionGate != null) {
+        _MotionGate.reset();
+      }
+      if (_SharpnessGate != null) {
+        _SharpnessGate.reset();
+      }
+    }
+
+    /**
+     * Runs the cheap per-frame filters. Returns false when the frame is not worth
+     * a full detection pass.
+     */
+    private boolean shouldDetect(SourceFrame p_Frame, PipelineMetrics p_Metrics) {
+      int width = _PreviewSize.getWidth();
+      int height = _PreviewSize.getHeight();
+
+      if (_MotionGate != null && !_MotionGate.accept(p_Frame.getLuma(), width, height, p_Frame._TimeMillis)) {
+        p_Metrics.onFrameStatic();
+        return false;
+      }
+
+      if (_SharpnessGate != null) {
+        boolean sharp = _SharpnessGate.accept(p_Frame.getLuma(), width, height);
+        p_Metrics.onSharpnessMeasured(_SharpnessGate.getMeasureNanos(), _SharpnessGate.getThreshold());
+        if (!sharp) {
+          p_Metrics.onFrameBlurred();
+          return false;
         }
       }
+
+      return true;
+    }
+
+    /**
+     * Called in frame order for frames detected on by the worker pool. The
+     * workers run side by side, so the pool sustains N times the rate that the
+     * latency of a single frame suggests.
+     */
+    void onWorkerDetection(long p_LatencyNanos) {
+      recordLatency(p_LatencyNanos / _WorkerPool.getWorkerCount());
+    }
+
+    private void onDetected(SourceFrame p_Frame, long p_LatencyNanos) {
+      recordLatency(p_LatencyNanos);
+
+      if (_MotionGate != null) {
+        boolean hadResults = (_Detector instanceof ResultReporting)
+            && ((ResultReporting) _Detector).lastFrameHadResults();
+        _MotionGate.onDetected(hadResults, p_Frame._TimeMillis);
+      }
+    }
+
+    private void recordLatency(long p_LatencyNanos) {
+      FpsGovernor governor = _FpsGovernor;
+      if (governor != null) {
+        governor.onDetection(p_LatencyNanos, _DisplacedFrames.get());
+      }
     }
   }
 }
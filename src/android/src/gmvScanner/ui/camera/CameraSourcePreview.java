@@ -93,6 +93,13 @@ public class CameraSourcePreview extends ViewGroup {
     addView(_TorchButton);
   }
 
+  /**
+   * For previews created in code rather than inflated from a layout.
+   */
+  public CameraSourcePreview(Context p_Context) {
+    this(p_Context, null);
+  }
+
   // ----------------------------------------------------------------------------
   // |  Public Functions
   // ----------------------------------------------------------------------------
@@ -127,6 +134,16 @@ public class CameraSourcePreview extends ViewGroup {
     }
   }
 
+  /**
+   * Like stop(), but keeps the camera open for the next start(); see
+   * CameraSource2.park().
+   */
+  public void park() {
+    if (_CameraSource != null) {
+      _CameraSource.park();
+    }
+  }
+
   public void release() {
     if (_CameraSource != null) {
       _CameraSource.release();
@@ -141,25 +158,54 @@ public class CameraSourcePreview extends ViewGroup {
   // ----------------------------------------------------------------------------
   // |  Private Functions
   // ----------------------------------------------------------------------------  
+  /**
+   * Starts the camera source once both the start request and the surface are
+   * there. The camera is opened on the camera thread of the source; the overlay
+   * and the layout are updated when it reports back.
+   */
   @RequiresPermission(Manifest.permission.CAMERA)
-  private void startIfReady() throws IOException, SecurityException {
+  private void startIfReady() throws SecurityException {
     if (_StartRequested && _SurfaceAvailable) {
-      _CameraSource.start(_SurfaceView.getHolder());
-      if (_Overlay != null) {
-        Size size = _CameraSource.getPreviewSize();
-        int min = Math.min(size.getWidth(), size.getHeight());
-        int max = Math.max(size.getWidth(), size.getHeight());
-        if (isPortraitMode()) {
-          _Overlay.setCameraInfo(min, max, _CameraSource.getCameraFacing());
-        } else {
-          _Overlay.setCameraInfo(max, min, _CameraSource.getCameraFacing());
+      final CameraSource2 cameraSource = _CameraSource;
+      cameraSource.startAsync(_SurfaceView.getHolder(), new CameraSource2.StartCallback() {
+        @Override
+        public void onStarted() {
+          if (cameraSource != _CameraSource) {
+            return;
+          }
+          onCameraStarted();
         }
-        _Overlay.clear();
-      }
+
+        @Override
+        public void onError(Exception error) {
+          if (error instanceof SecurityException) {
+            Log.e(TAG, "Do not have permission to start the camera", error);
+          } else {
+            Log.e(TAG, "Could not start camera source.", error);
+          }
+        }
+      });
       _StartRequested = false;
     }
   }
 
+  private void onCameraStarted() {
+    if (_Overlay != null) {
+      Size size = _CameraSource.getPreviewSize();
+      int min = Math.min(size.getWidth(), size.getHeight());
+      int max = Math.max(size.getWidth(), size.getHeight());
+      if (isPortraitMode()) {
+        _Overlay.setCameraInfo(min, max, _CameraSource.getCameraFacing());
+      } else {
+        _Overlay.setCameraInfo(max, min, _CameraSource.getCameraFacing());
+      }
+      _Overlay.clear();
+    }
+
+    // The preview size is only known now, so the surface may need a new aspect.
+    requestLayout();
+  }
+
   @Override
   protected void onLayout(boolean p_Changed, int p_Left, int p_Top, int p_Right, int p_Bottom) {
     int width = 320;
@@ -216,8 +262,6 @@ public class CameraSourcePreview extends ViewGroup {
       startIfReady();
     } catch (SecurityException se) {
       Log.e(TAG, "Do not have permission to start the camera", se);
-    } catch (IOException e) {
-      Log.e(TAG, "Could not start camera source.", e);
     }
   }
 
@@ -245,8 +289,6 @@ public class CameraSourcePreview extends ViewGroup {
         startIfReady();
       } catch (SecurityException se) {
         Log.e(TAG, "Do not have permission to start the camera", se);
-      } catch (IOException e) {
-        Log.e(TAG, "Could not start camera source.", e);
       }
     }
 
@@ -0,0 +1,308 @@
+package tl.cordova.google.mobile.vision.scanner.ui.camera;
+
+// ----------------------------------------------------------------------------
+// |  Android Imports
+// ----------------------------------------------------------------------------
+import android.util.Log;
+import android.util.SparseArray;
+
+// ----------------------------------------------------------------------------
+// |  Google Imports
+// ----------------------------------------------------------------------------
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+
+// ----------------------------------------------------------------------------
+// |  Java Imports
+// ----------------------------------------------------------------------------
+import java.util.ArrayList;
+import java.util.List;
+
+// Runs detection on several detector instances in parallel. Frames are handed to
+// the idle workers in round-robin order, each worker returns its frame buffer as
+// soon as its detector is done with it, and the results are passed on to the
+// processor strictly in submission order, so trackers still see a monotonic
+// stream of frames.
+class DetectorWorkerPool<T> {
+  // ----------------------------------------------------------------------------
+  // | Helpers
+  // ----------------------------------------------------------------------------
+
+  /**
+   * A frame submitted to the pool. recycle() is called from the worker thread
+   * once the frame data is no longer needed.
+   */
+  interface Job {
+    Frame getFrame();
+
+    /**
+     * System.nanoTime() at which the camera delivered the frame.
+     */
+    long getArrivalNanos();
+
+    void recycle();
+  }
+
+  /**
+   * Called for every delivered frame, in submission order and never concurrently.
+   */
+  interface Listener {
+    void onDetection(long p_LatencyNanos, long p_ArrivalNanos, boolean p_HadResults);
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Private Properties
+  // ----------------------------------------------------------------------------
+  private static final String TAG = "DetectorWorkerPool";
+
+  // This lock guards the scheduling state of the pool and of every worker.
+  private final Object                _Lock         = new Object()     ;
+  private final List<Worker>          _Workers      = new ArrayList<>();
+  private final Detector.Processor<T> _Processor                       ;
+  private final Listener              _Listener                        ;
+  private boolean                     _Active                          ;
+  private boolean                     _Delivering                      ;
+  private int                         _NextWorker                      ;
+  private long                        _NextSequence                    ;
+  private long                        _NextDelivery                    ;
+
+  DetectorWorkerPool(List<Detector<T>> p_Detectors, Detector.Processor<T> p_Processor, Listener p_Listener) {
+    for (int i = 0; i < p_Detectors.size(); ++i) {
+      _Workers.add(new Worker(p_Detectors.get(i), i));
+    }
+    _Processor = p_Processor;
+    _Listener  = p_Listener ;
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Public Functions
+  // ----------------------------------------------------------------------------
+  int getWorkerCount() {
+    return _Workers.size();
+  }
+
+  void start() {
+    synchronized (_Lock) {
+      _Active = true;
+      _Delivering = false;
+      _NextWorker = 0;
+      _NextSequence = 0;
+      _NextDelivery = 0;
+      for (Worker worker : _Workers) {
+        worker._Job = null;
+        worker._Busy = false;
+        worker._Ready = false;
+        worker._Thread = new Thread(worker, "DetectorWorker-" + worker._Index);
+        worker._Thread.start();
+      }
+    }
+  }
+
+  /**
+   * Stops the workers and waits for them. Frames that were submitted but not
+   * started yet are dropped without being recycled; the caller is releasing
+   * the camera that owns their buffers anyway.
+   */
+  void stop() {
+    synchronized (_Lock) {
+      _Active = false;
+      _Lock.notifyAll();
+    }
+
+    for (Worker worker : _Workers) {
+      if (worker._Thread == null) {
+        continue;
+      }
+      try {
+        worker._Thread.join();
+      } catch (InterruptedException e) {
+        Log.d(TAG, "Interrupted while waiting for detector worker " + worker._Index);
+      }
+      worker._Thread = null;
+    }
+  }
+
+  /**
+   * Releases the processor and every detector but the first one, which belongs
+   * to the camera source. Only safe once the pool is stopped.
+   */
+  void release() {
+    for (int i = 1; i < _Workers.size(); ++i) {
+      _Workers.get(i)._Detector.release();
+    }
+    _Processor.release();
+  }
+
+  /**
+   * Hands a frame to the next idle worker, waiting for one to become idle.
+   * Returns false if the pool was stopped, in which case the caller still owns
+   * the frame.
+   */
+  boolean submit(Job p_Job) throws InterruptedException {
+    synchronized (_Lock) {
+      while (true) {
+        if (!_Active) {
+          return false;
+        }
+
+        for (int i = 0; i < _Workers.size(); ++i) {
+          Worker worker = _Workers.get((_NextWorker + i) % _Workers.size());
+          if (!worker._Busy) {
+            worker._Busy = true;
+            worker._Job = p_Job;
+            worker._Sequence = _NextSequence++;
+            _NextWorker = (worker._Index + 1) % _Workers.size();
+            _Lock.notifyAll();
+            return true;
+          }
+        }
+
+        _Lock.wait();
+      }
+    }
+  }
+
+  long getDetectedFrameCount(int p_Worker) {
+    synchronized (_Lock) {
+      return _Workers.get(p_Worker)._Detected;
+    }
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Private Functions
+  // ----------------------------------------------------------------------------
+
+  /**
+   * Delivers every finished result that is next in line. Only one thread
+   * delivers at a time; a worker that finishes while another one is delivering
+   * leaves its result to that thread.
+   */
+  private void deliverReady() {
+    while (true) {
+      SparseArray<T> items;
+      Frame.Metadata metadata;
+      boolean operational;
+      long latencyNanos;
+      long arrivalNanos;
+
+      synchronized (_Lock) {
+        if (_Delivering) {
+          return;
+        }
+
+        Worker next = null;
+        for (Worker worker : _Workers) {
+          if (worker._Ready && worker._Sequence == _NextDelivery) {
+            next = worker;
+            break;
+          }
+        }
+        if (next == null) {
+          return;
+        }
+
+        items = next._Items;
+        metadata = next._Metadata;
+        operational = next._Operational;
+        latencyNanos = next._LatencyNanos;
+        arrivalNanos = next._ArrivalNanos;
+        next._Items = null;
+        next._Metadata = null;
+        next._Ready = false;
+        next._Busy = false;
+        _NextDelivery++;
+        _Delivering = true;
+        _Lock.notifyAll();
+      }
+
+      try {
+        if (items != null) {
+          _Processor.receiveDetections(new Detector.Detections<>(items, metadata, operational));
+        }
+        _Listener.onDetection(latencyNanos, arrivalNanos, items != null && items.size() > 0);
+      } catch (Throwable t) {
+        Log.e(TAG, "Exception thrown from processor.", t);
+      } finally {
+        synchronized (_Lock) {
+          _Delivering = false;
+        }
+      }
+    }
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Helper Classes
+  // ----------------------------------------------------------------------------
+  private class Worker implements Runnable {
+    private final Detector<T> _Detector;
+    private final int _Index;
+    private Thread _Thread;
+
+    // Guarded by _Lock. A worker stays busy until its result has been
+    // delivered, so the result fields below are never overwritten early.
+    private Job _Job;
+    private long _Sequence;
+    private boolean _Busy;
+    private boolean _Ready;
+    private long _Detected;
+    private SparseArray<T> _Items;
+    private Frame.Metadata _Metadata;
+    private boolean _Operational;
+    private long _LatencyNanos;
+    private long _ArrivalNanos;
+
+    Worker(Detector<T> p_Detector, int p_Index) {
+      _Detector = p_Detector;
+      _Index = p_Index;
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        Job job;
+        synchronized (_Lock) {
+          while (_Active && _Job == null) {
+            try {
+              _Lock.wait();
+            } catch (InterruptedException e) {
+              Log.d(TAG, "Detector worker terminated.", e);
+              return;
+            }
+          }
+
+          if (!_Active) {
+            return;
+          }
+          job = _Job;
+          _Job = null;
+        }
+
+        long start = System.nanoTime();
+        long arrival = job.getArrivalNanos();
+        SparseArray<T> items = null;
+        Frame.Metadata metadata = null;
+        try {
+          Frame frame = job.getFrame();
+          metadata = new Frame.Metadata(frame.getMetadata());
+          items = _Detector.detect(frame);
+        } catch (Throwable t) {
+          Log.e(TAG, "Exception thrown from detector.", t);
+        } finally {
+          job.recycle();
+        }
+
+        synchronized (_Lock) {
+          _Items = items;
+          _Metadata = metadata;
+          _Operational = _Detector.isOperational();
+          _LatencyNanos = System.nanoTime() - start;
+          _ArrivalNanos = arrival;
+          _Detected++;
+          _Ready = true;
+        }
+
+        deliverReady();
+      }
+    }
+  }
+}
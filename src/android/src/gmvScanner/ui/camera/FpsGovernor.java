@@ -0,0 +1,147 @@
+package tl.cordova.google.mobile.vision.scanner.ui.camera;
+
+// ----------------------------------------------------------------------------
+// |  Android Imports
+// ----------------------------------------------------------------------------
+import android.hardware.Camera;
+
+// ----------------------------------------------------------------------------
+// |  Java Imports
+// ----------------------------------------------------------------------------
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+// Picks the camera preview FPS range from what the detector can actually keep up
+// with. It follows the measured detection latency and how many frames get
+// displaced in the pending slot:
+//
+// - many displaced frames: the camera produces frames the detector only throws
+//   away, so step down to a range the detector can sustain
+// - almost none displaced and plenty of headroom: step up for lower latency
+//
+// Decisions are made on the processing thread, the range is applied on the
+// camera thread (see CameraSource2).
+@SuppressWarnings("deprecation")
+class FpsGovernor {
+  // ----------------------------------------------------------------------------
+  // | Private Properties
+  // ----------------------------------------------------------------------------
+  private static final int   WINDOW_FRAMES         = 30   ;
+  private static final float LATENCY_SMOOTHING     = 0.2f ;
+  private static final float STEP_DOWN_DISPLACED   = 0.30f;
+  private static final float STEP_UP_MAX_DISPLACED = 0.05f;
+  private static final float STEP_UP_HEADROOM      = 1.5f ;
+
+  private final List<int[]> _Ranges                ;
+  private volatile int      _TargetIndex           ;
+  private float             _AverageLatencyMillis  ;
+  private int               _Frames                ;
+  private long              _DisplacedAtWindowStart;
+
+  /**
+   * p_SupportedRanges are the ranges reported by the camera, in units of
+   * 1/1000 fps. Only ranges whose maximum lies within [p_MinFps, p_MaxFps] are
+   * used; the governor starts on the one closest to p_InitialRange.
+   */
+  FpsGovernor(List<int[]> p_SupportedRanges, int[] p_InitialRange, float p_MinFps, float p_MaxFps) {
+    _Ranges = new ArrayList<>();
+    for (int[] range : p_SupportedRanges) {
+      int max = range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
+      if (max >= p_MinFps * 1000 && max <= p_MaxFps * 1000) {
+        _Ranges.add(range);
+      }
+    }
+
+    // Sort by maximum rate and keep one range per maximum, preferring the one
+    // with the highest minimum since it holds the rate most steadily.
+    Collections.sort(_Ranges, new Comparator<int[]>() {
+      @Override
+      public int compare(int[] p_Left, int[] p_Right) {
+        int max = p_Left[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] - p_Right[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
+        if (max != 0) {
+          return max;
+        }
+        return p_Right[Camera.Parameters.PREVIEW_FPS_MIN_INDEX] - p_Left[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
+      }
+    });
+    for (int i = _Ranges.size() - 1; i > 0; --i) {
+      if (_Ranges.get(i)[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]
+          == _Ranges.get(i - 1)[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]) {
+        _Ranges.remove(i);
+      }
+    }
+
+    int initialMax = p_InitialRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
+    int minDiff = Integer.MAX_VALUE;
+    for (int i = 0; i < _Ranges.size(); ++i) {
+      int diff = Math.abs(_Ranges.get(i)[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] - initialMax);
+      if (diff < minDiff) {
+        minDiff = diff;
+        _TargetIndex = i;
+      }
+    }
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Public Functions
+  // ----------------------------------------------------------------------------
+
+  /**
+   * Records the detection latency of one frame. p_DisplacedFrames is the running
+   * total of displaced frames. Only called from the processing thread.
+   */
+  void onDetection(long p_LatencyNanos, long p_DisplacedFrames) {
+    float latencyMillis = p_LatencyNanos / 1000000.0f;
+    if (_Frames == 0 && _AverageLatencyMillis == 0) {
+      _AverageLatencyMillis = latencyMillis;
+      _DisplacedAtWindowStart = p_DisplacedFrames;
+    } else {
+      _AverageLatencyMillis += (latencyMillis - _AverageLatencyMillis) * LATENCY_SMOOTHING;
+    }
+
+    if (++_Frames < WINDOW_FRAMES || _Ranges.isEmpty()) {
+      return;
+    }
+
+    float displacedRatio = (float) (p_DisplacedFrames - _DisplacedAtWindowStart) / _Frames;
+    _Frames = 0;
+    _DisplacedAtWindowStart = p_DisplacedFrames;
+
+    float sustainableFps = (_AverageLatencyMillis > 0) ? 1000.0f / _AverageLatencyMillis : Float.MAX_VALUE;
+    int index = _TargetIndex;
+
+    if (displacedRatio >= STEP_DOWN_DISPLACED && index > 0) {
+      // Go down to the fastest range the detector can keep up with, but at least
+      // one step.
+      int target = index - 1;
+      while (target > 0 && maxFps(target) > sustainableFps) {
+        target--;
+      }
+      _TargetIndex = target;
+    } else if (displacedRatio <= STEP_UP_MAX_DISPLACED && index < _Ranges.size() - 1
+        && sustainableFps >= maxFps(index + 1) * STEP_UP_HEADROOM) {
+      _TargetIndex = index + 1;
+    }
+  }
+
+  /**
+   * The range the camera should currently be running at, or null when there is
+   * nothing to choose from.
+   */
+  int[] getTargetRange() {
+    return _Ranges.isEmpty() ? null : _Ranges.get(_TargetIndex);
+  }
+
+  float getAverageLatencyMillis() {
+    return _AverageLatencyMillis;
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Private Functions
+  // ----------------------------------------------------------------------------
+  private float maxFps(int p_Index) {
+    return _Ranges.get(p_Index)[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] / 1000.0f;
+  }
+}
@@ -53,6 +53,13 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
     super(p_Context, p_AttributeSet);
   }
 
+  /**
+   * For overlays created in code rather than inflated from a layout.
+   */
+  public GraphicOverlay(Context p_Context) {
+    this(p_Context, null);
+  }
+
   // ----------------------------------------------------------------------------
   // |  Public Functions
   // ----------------------------------------------------------------------------    
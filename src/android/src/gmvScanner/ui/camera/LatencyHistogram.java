@@ -0,0 +1,123 @@
+package tl.cordova.google.mobile.vision.scanner.ui.camera;
+
+// ----------------------------------------------------------------------------
+// |  Java Imports
+// ----------------------------------------------------------------------------
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// A fixed size, log-linear latency histogram. Every power of two microseconds is
+// split into four sub-buckets, so a percentile read from it is within 25% of the
+// true value from 1us up to about a minute. Recording only increments counters
+// that exist from the start, so it allocates nothing and is safe to call from the
+// frame processing thread while another thread reads the histogram.
+public class LatencyHistogram {
+  // ----------------------------------------------------------------------------
+  // | Private Properties
+  // ----------------------------------------------------------------------------
+  private static final int SUB_BUCKET_BITS = 2;
+  private static final int SUB_BUCKETS     = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_EXPONENT    = 26;
+  private static final int BUCKET_COUNT    = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+  private final AtomicLongArray _Buckets  = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong      _Count    = new AtomicLong()                 ;
+  private final AtomicLong      _SumNanos = new AtomicLong()                 ;
+  private final AtomicLong      _MaxNanos = new AtomicLong()                 ;
+
+  // ----------------------------------------------------------------------------
+  // | Public Functions
+  // ----------------------------------------------------------------------------
+  public void record(long p_Nanos) {
+    if (p_Nanos < 0) {
+      return;
+    }
+
+    _Buckets.incrementAndGet(bucketOf(p_Nanos / 1000));
+    _Count.incrementAndGet();
+    _SumNanos.addAndGet(p_Nanos);
+
+    long max = _MaxNanos.get();
+    while (p_Nanos > max && !_MaxNanos.compareAndSet(max, p_Nanos)) {
+      max = _MaxNanos.get();
+    }
+  }
+
+  public long getCount() {
+    return _Count.get();
+  }
+
+  public long getMeanNanos() {
+    long count = _Count.get();
+    return (count > 0) ? _SumNanos.get() / count : 0;
+  }
+
+  public long getMaxNanos() {
+    return _MaxNanos.get();
+  }
+
+  /**
+   * Returns the upper bound of the bucket holding the given percentile (0-100),
+   * capped at the largest recorded value, or 0 if nothing was recorded.
+   */
+  public long getPercentileNanos(double p_Percentile) {
+    long count = _Count.get();
+    if (count == 0) {
+      return 0;
+    }
+
+    long rank = (long) Math.ceil(count * Math.max(0, Math.min(100, p_Percentile)) / 100.0);
+    rank = Math.max(1, rank);
+
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; ++i) {
+      seen += _Buckets.get(i);
+      if (seen >= rank) {
+        return Math.min(upperBoundMicros(i) * 1000, _MaxNanos.get());
+      }
+    }
+    return _MaxNanos.get();
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKET_COUNT; ++i) {
+      _Buckets.set(i, 0);
+    }
+    _Count.set(0);
+    _SumNanos.set(0);
+    _MaxNanos.set(0);
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Private Functions
+  // ----------------------------------------------------------------------------
+
+  /**
+   * Values below 4us get one bucket each. Above that, every power of two gets
+   * four buckets, chosen by the two bits below the highest set bit.
+   */
+  private static int bucketOf(long p_Micros) {
+    if (p_Micros < SUB_BUCKETS) {
+      return (int) p_Micros;
+    }
+
+    int exponent = 63 - Long.numberOfLeadingZeros(p_Micros);
+    if (exponent > MAX_EXPONENT) {
+      return BUCKET_COUNT - 1;
+    }
+
+    int sub = (int) (p_Micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  private static long upperBoundMicros(int p_Bucket) {
+    if (p_Bucket < SUB_BUCKETS) {
+      return p_Bucket + 1;
+    }
+
+    int exponent = p_Bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    int sub = p_Bucket % SUB_BUCKETS;
+    long step = 1L << (exponent - SUB_BUCKET_BITS);
+    return (1L << exponent) + (sub + 1) * step;
+  }
+}
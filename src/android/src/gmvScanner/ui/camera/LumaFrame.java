@@ -0,0 +1,147 @@
+package tl.cordova.google.mobile.vision.scanner.ui.camera;
+
+// ----------------------------------------------------------------------------
+// |  Android Imports
+// ----------------------------------------------------------------------------
+import android.graphics.ImageFormat;
+
+// ----------------------------------------------------------------------------
+// |  Google Imports
+// ----------------------------------------------------------------------------
+import com.google.android.gms.vision.Frame;
+
+// ----------------------------------------------------------------------------
+// |  Java Imports
+// ----------------------------------------------------------------------------
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// A reusable NV21 image that only carries luma. The chroma plane is filled with
+// the neutral value once, so the detectors see a valid gray image, and every
+// later frame only rewrites the Y plane. Used to hand cropped or scaled copies of
+// a preview frame to a detector without allocating per frame.
+public class LumaFrame {
+  // ----------------------------------------------------------------------------
+  // | Private Properties
+  // ----------------------------------------------------------------------------
+  private static final byte NEUTRAL_CHROMA = (byte) 128;
+
+  private final int           _Width       ;
+  private final int           _Height      ;
+  private final byte[]        _Bytes       ;
+  private final Frame.Builder _FrameBuilder;
+
+  // ----------------------------------------------------------------------------
+  // | Constructor
+  // ----------------------------------------------------------------------------
+  public LumaFrame(int p_Width, int p_Height) {
+    if ((p_Width <= 0) || (p_Height <= 0) || (p_Width % 2 != 0) || (p_Height % 2 != 0)) {
+      throw new IllegalArgumentException("Invalid luma frame size: " + p_Width + "x" + p_Height);
+    }
+
+    _Width = p_Width;
+    _Height = p_Height;
+    _Bytes = new byte[p_Width * p_Height * 3 / 2];
+    Arrays.fill(_Bytes, p_Width * p_Height, _Bytes.length, NEUTRAL_CHROMA);
+
+    _FrameBuilder = new Frame.Builder()
+        .setImageData(ByteBuffer.wrap(_Bytes), p_Width, p_Height, ImageFormat.NV21);
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Public Functions
+  // ----------------------------------------------------------------------------
+  public int getWidth() {
+    return _Width;
+  }
+
+  public int getHeight() {
+    return _Height;
+  }
+
+  public boolean hasSize(int p_Width, int p_Height) {
+    return (_Width == p_Width) && (_Height == p_Height);
+  }
+
+  /**
+   * Direct access to the luma plane, row after row, _Width bytes per row.
+   */
+  public byte[] getLuma() {
+    return _Bytes;
+  }
+
+  /**
+   * Copies the region starting at (p_Left, p_Top) of a larger luma plane into
+   * this frame. p_Source must hold at least the Y plane of a p_SourceWidth wide
+   * image; its position is left untouched.
+   */
+  public void copyRegion(ByteBuffer p_Source, int p_SourceWidth, int p_Left, int p_Top) {
+    if (p_Source.hasArray()) {
+      byte[] source = p_Source.array();
+      int offset = p_Source.arrayOffset() + p_Top * p_SourceWidth + p_Left;
+      for (int row = 0; row < _Height; ++row) {
+        System.arraycopy(source, offset, _Bytes, row * _Width, _Width);
+        offset += p_SourceWidth;
+      }
+      return;
+    }
+
+    // Direct buffers (e.g. camera image planes) have no backing array, so read
+    // them row by row and restore the position afterwards.
+    int position = p_Source.position();
+    int offset = position + p_Top * p_SourceWidth + p_Left;
+    for (int row = 0; row < _Height; ++row) {
+      p_Source.position(offset);
+      p_Source.get(_Bytes, row * _Width, _Width);
+      offset += p_SourceWidth;
+    }
+    p_Source.position(position);
+  }
+
+  /**
+   * Fills this frame with a 2x decimated copy of a luma plane that is at least
+   * twice as large in both directions. Every output pixel is the rounded mean of
+   * the corresponding 2x2 block.
+   */
+  public void downsampleFrom(ByteBuffer p_Source, int p_SourceWidth) {
+    if (p_Source.hasArray()) {
+      byte[] source = p_Source.array();
+      int base = p_Source.arrayOffset();
+      int out = 0;
+      for (int row = 0; row < _Height; ++row) {
+        int top = base + (row * 2) * p_SourceWidth;
+        int bottom = top + p_SourceWidth;
+        for (int col = 0; col < _Width; ++col) {
+          int sum = (source[top] & 0xFF) + (source[top + 1] & 0xFF) + (source[bottom] & 0xFF)
+              + (source[bottom + 1] & 0xFF);
+          _Bytes[out++] = (byte) ((sum + 2) >> 2);
+          top += 2;
+          bottom += 2;
+        }
+      }
+      return;
+    }
+
+    int base = p_Source.position();
+    int out = 0;
+    for (int row = 0; row < _Height; ++row) {
+      int top = base + (row * 2) * p_SourceWidth;
+      int bottom = top + p_SourceWidth;
+      for (int col = 0; col < _Width; ++col) {
+        int sum = (p_Source.get(top) & 0xFF) + (p_Source.get(top + 1) & 0xFF) + (p_Source.get(bottom) & 0xFF)
+            + (p_Source.get(bottom + 1) & 0xFF);
+        _Bytes[out++] = (byte) ((sum + 2) >> 2);
+        top += 2;
+        bottom += 2;
+      }
+    }
+  }
+
+  /**
+   * Returns the frame that wraps this image. The same Frame instance is returned
+   * every time, only its metadata changes.
+   */
+  public Frame build(int p_Id, long p_TimestampMillis, int p_Rotation) {
+    return _FrameBuilder.setId(p_Id).setTimestampMillis(p_TimestampMillis).setRotation(p_Rotation).build();
+  }
+}
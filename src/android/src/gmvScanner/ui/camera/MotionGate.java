@@ -0,0 +1,105 @@
+package tl.cordova.google.mobile.vision.scanner.ui.camera;
+
+// ----------------------------------------------------------------------------
+// |  Java Imports
+// ----------------------------------------------------------------------------
+import java.nio.ByteBuffer;
+
+// Skips detection while the camera looks at an unchanged scene that did not
+// contain a readable barcode the last time it was checked. Each frame is reduced
+// to a tiny luma thumbnail which is compared with the thumbnail of that last
+// detected frame. The scene is still re-checked on a fixed interval, so slow
+// changes (focus settling, exposure) are not missed forever.
+class MotionGate {
+  // ----------------------------------------------------------------------------
+  // | Private Properties
+  // ----------------------------------------------------------------------------
+  private static final int THUMBNAIL_WIDTH  = 32;
+  private static final int THUMBNAIL_HEIGHT = 24;
+
+  private final float      _Threshold                                                         ;
+  private final long       _RecheckMillis                                                     ;
+  private byte[]           _Current             = new byte[THUMBNAIL_WIDTH * THUMBNAIL_HEIGHT];
+  private byte[]           _Reference           = new byte[THUMBNAIL_WIDTH * THUMBNAIL_HEIGHT];
+  private volatile boolean _HasReference                                                      ;
+  private long             _LastDetectionMillis                                               ;
+
+  /**
+   * p_Threshold is the mean absolute luma difference (0 - 255) below which two
+   * thumbnails count as the same scene.
+   */
+  MotionGate(float p_Threshold, long p_RecheckMillis) {
+    _Threshold     = p_Threshold    ;
+    _RecheckMillis = p_RecheckMillis;
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Public Functions
+  // ----------------------------------------------------------------------------
+
+  /**
+   * Returns false when the frame shows the same scene as the last frame that was
+   * detected on without results. Only called from the processing thread.
+   */
+  boolean accept(ByteBuffer p_Data, int p_Width, int p_Height, long p_TimeMillis) {
+    sample(p_Data, p_Width, p_Height, _Current);
+
+    if (!_HasReference || (p_TimeMillis - _LastDetectionMillis >= _RecheckMillis)) {
+      return true;
+    }
+
+    int sum = 0;
+    for (int i = 0; i < _Current.length; ++i) {
+      sum += Math.abs((_Current[i] & 0xFF) - (_Reference[i] & 0xFF));
+    }
+
+    if ((float) sum / _Current.length >= _Threshold) {
+      return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Records the outcome of detecting on the frame last passed to accept(). A
+   * frame without results becomes the new reference scene; a frame with results
+   * clears it, so a scene that is being tracked is never skipped.
+   */
+  void onDetected(boolean p_HadResults, long p_TimeMillis) {
+    _LastDetectionMillis = p_TimeMillis;
+
+    if (p_HadResults) {
+      _HasReference = false;
+      return;
+    }
+
+    byte[] reference = _Reference;
+    _Reference = _Current;
+    _Current = reference;
+    _HasReference = true;
+  }
+
+  /**
+   * Forgets the reference scene, e.g. after the zoom changed.
+   */
+  void reset() {
+    _HasReference = false;
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Private Functions
+  // ----------------------------------------------------------------------------
+  private static void sample(ByteBuffer p_Data, int p_Width, int p_Height, byte[] p_Thumbnail) {
+    int base = p_Data.hasArray() ? p_Data.arrayOffset() : p_Data.position();
+    byte[] data = p_Data.hasArray() ? p_Data.array() : null;
+
+    int out = 0;
+    for (int ty = 0; ty < THUMBNAIL_HEIGHT; ++ty) {
+      int row = base + ((2 * ty + 1) * p_Height / (2 * THUMBNAIL_HEIGHT)) * p_Width;
+      for (int tx = 0; tx < THUMBNAIL_WIDTH; ++tx) {
+        int index = row + (2 * tx + 1) * p_Width / (2 * THUMBNAIL_WIDTH);
+        p_Thumbnail[out++] = (data != null) ? data[index] : p_Data.get(index);
+      }
+    }
+  }
+}
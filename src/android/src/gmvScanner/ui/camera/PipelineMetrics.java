@@ -0,0 +1,378 @@
+package tl.cordova.google.mobile.vision.scanner.ui.camera;
+
+// ----------------------------------------------------------------------------
+// |  Android Imports
+// ----------------------------------------------------------------------------
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// ----------------------------------------------------------------------------
+// |  Java Imports
+// ----------------------------------------------------------------------------
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Timings and frame counters of one camera session, from start() to stop().
+// Every frame the camera produced ends up either detected on or counted as lost
+// under exactly one cause, so the causes add up to the gap between the camera
+// and the detection rate. The frame processor records into it without
+// allocating; anyone may read it at any time. The metrics of the most recently
+// started session stay available through getCurrent() after the scanner is
+// closed, so they can be collected from the field.
+public class PipelineMetrics {
+  // ----------------------------------------------------------------------------
+  // | Public Properties
+  // ----------------------------------------------------------------------------
+
+  /**
+   * Number of levels of the multi-resolution detector, see
+   * BarcodePyramidDetector.LEVEL_FULL and LEVEL_HALF.
+   */
+  public static final int PYRAMID_LEVEL_COUNT = 2;
+
+  // ----------------------------------------------------------------------------
+  // | Private Properties
+  // ----------------------------------------------------------------------------
+  private static final String[] PYRAMID_LEVEL_NAMES = { "full", "half" };
+
+  private static volatile PipelineMetrics _Current;
+
+  private final long                 _StartMillis        = SystemClock.elapsedRealtime()           ;
+  private final LatencyHistogram     _QueueWait          = new LatencyHistogram()                  ;
+  private final LatencyHistogram     _Detection          = new LatencyHistogram()                  ;
+  private final LatencyHistogram     _EndToEnd           = new LatencyHistogram()                  ;
+  private final AtomicLong           _ReceivedFrames     = new AtomicLong()                        ;
+  private final AtomicLong           _DetectedFrames     = new AtomicLong()                        ;
+  private final AtomicLong           _Overwritten        = new AtomicLong()                        ;
+  private final AtomicLong           _BufferNotFound     = new AtomicLong()                        ;
+  private final AtomicLong           _Blurred            = new AtomicLong()                        ;
+  private final AtomicLong           _Static             = new AtomicLong()                        ;
+  private final AtomicLong           _Starved            = new AtomicLong()                        ;
+  private final AtomicLongArray      _PyramidAttempts    = new AtomicLongArray(PYRAMID_LEVEL_COUNT);
+  private final AtomicLongArray      _PyramidHits        = new AtomicLongArray(PYRAMID_LEVEL_COUNT);
+  private final AtomicLongArray      _PyramidNanos       = new AtomicLongArray(PYRAMID_LEVEL_COUNT);
+  private final AtomicLong           _SharpnessMeasured  = new AtomicLong()                        ;
+  private final AtomicLong           _SharpnessNanos     = new AtomicLong()                        ;
+  private volatile float             _SharpnessThreshold                                           ;
+  private volatile long              _StartupNanos                                                 ;
+  private volatile boolean           _CapabilitiesCached                                           ;
+  private volatile long              _FirstFrameNanos                                              ;
+  private volatile PreviewBufferPool _BufferPool                                                   ;
+
+  // ----------------------------------------------------------------------------
+  // | Public Functions
+  // ----------------------------------------------------------------------------
+
+  /**
+   * The metrics of the most recently started camera session, or null if no
+   * camera source was started in this process yet.
+   */
+  @Nullable
+  public static PipelineMetrics getCurrent() {
+    return _Current;
+  }
+
+  /**
+   * Time from the camera callback to the processing thread taking the frame.
+   */
+  public LatencyHistogram getQueueWait() {
+    return _QueueWait;
+  }
+
+  /**
+   * Time spent in the detector and the processor for one frame.
+   */
+  public LatencyHistogram getDetection() {
+    return _Detection;
+  }
+
+  /**
+   * Time from the camera callback to the end of detection.
+   */
+  public LatencyHistogram getEndToEnd() {
+    return _EndToEnd;
+  }
+
+  public long getReceivedFrameCount() {
+    return _ReceivedFrames.get();
+  }
+
+  public long getDetectedFrameCount() {
+    return _DetectedFrames.get();
+  }
+
+  /**
+   * Frames replaced in the pending slot by a newer frame before the detector
+   * got to them.
+   */
+  public long getOverwrittenFrameCount() {
+    return _Overwritten.get();
+  }
+
+  /**
+   * Frames delivered in a buffer that the camera source no longer knows, e.g.
+   * one retired by the adaptive buffer policy.
+   */
+  public long getBufferNotFoundFrameCount() {
+    return _BufferNotFound.get();
+  }
+
+  /**
+   * Frames the sharpness gate kept away from the detector.
+   */
+  public long getBlurredFrameCount() {
+    return _Blurred.get();
+  }
+
+  /**
+   * Frames the motion gate kept away from the detector.
+   */
+  public long getStaticFrameCount() {
+    return _Static.get();
+  }
+
+  /**
+   * Frames the camera never delivered because it had no free buffer to fill.
+   * Estimated from the gaps between callbacks that follow a starved callback.
+   */
+  public long getStarvedFrameCount() {
+    return _Starved.get();
+  }
+
+  /**
+   * Time it took to open and configure the camera and start the preview.
+   */
+  public double getCameraStartMillis() {
+    return toMillis(_StartupNanos);
+  }
+
+  /**
+   * Whether the camera was configured from cached capabilities instead of
+   * querying them from the camera.
+   */
+  public boolean wereCapabilitiesCached() {
+    return _CapabilitiesCached;
+  }
+
+  /**
+   * System.nanoTime() at which the first frame of the session arrived, or 0 if
+   * none did yet.
+   */
+  public long getFirstFrameNanos() {
+    return _FirstFrameNanos;
+  }
+
+  /**
+   * Number of frames on which the given level of the multi-resolution detector
+   * was run.
+   */
+  public long getPyramidAttemptCount(int p_Level) {
+    return _PyramidAttempts.get(p_Level);
+  }
+
+  /**
+   * Number of frames on which the given level of the multi-resolution detector
+   * found at least one barcode.
+   */
+  public long getPyramidHitCount(int p_Level) {
+    return _PyramidHits.get(p_Level);
+  }
+
+  /**
+   * Total time spent on the given level of the multi-resolution detector,
+   * including building the image for it.
+   */
+  public long getPyramidLatencyNanos(int p_Level) {
+    return _PyramidNanos.get(p_Level);
+  }
+
+  /**
+   * Number of frames the sharpness gate measured.
+   */
+  public long getSharpnessMeasuredFrameCount() {
+    return _SharpnessMeasured.get();
+  }
+
+  /**
+   * Total time the sharpness gate spent measuring frames.
+   */
+  public long getSharpnessNanos() {
+    return _SharpnessNanos.get();
+  }
+
+  /**
+   * The sharpness the last measured frame needed to reach to be detected on.
+   */
+  public float getSharpnessThreshold() {
+    return _SharpnessThreshold;
+  }
+
+  public long getLostFrameCount() {
+    return _Overwritten.get() + _BufferNotFound.get() + _Blurred.get() + _Static.get() + _Starved.get();
+  }
+
+  public long getSessionMillis() {
+    return SystemClock.elapsedRealtime() - _StartMillis;
+  }
+
+  /**
+   * Rate at which the camera delivered frames over the session.
+   */
+  public double getCameraFps() {
+    return rate(_ReceivedFrames.get());
+  }
+
+  /**
+   * Rate at which frames were actually detected on over the session.
+   */
+  public double getDetectionFps() {
+    return rate(_DetectedFrames.get());
+  }
+
+  public JSONObject toJSON() throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put("sessionMillis", getSessionMillis());
+    json.put("cameraFps", getCameraFps());
+    json.put("detectionFps", getDetectionFps());
+    json.put("cameraStartMs", getCameraStartMillis());
+    json.put("capabilitiesCached", wereCapabilitiesCached());
+
+    JSONObject frames = new JSONObject();
+    frames.put("received", getReceivedFrameCount());
+    frames.put("detected", getDetectedFrameCount());
+    frames.put("overwritten", getOverwrittenFrameCount());
+    frames.put("bufferNotFound", getBufferNotFoundFrameCount());
+    frames.put("blurred", getBlurredFrameCount());
+    frames.put("static", getStaticFrameCount());
+    frames.put("starved", getStarvedFrameCount());
+    json.put("frames", frames);
+
+    PreviewBufferPool bufferPool = _BufferPool;
+    if (bufferPool != null) {
+      JSONObject buffers = new JSONObject();
+      buffers.put("hits", bufferPool.getHitCount());
+      buffers.put("misses", bufferPool.getMissCount());
+      buffers.put("pooledBytes", bufferPool.getPooledBytes());
+      json.put("bufferPool", buffers);
+    }
+
+    JSONObject pyramid = new JSONObject();
+    for (int level = 0; level < PYRAMID_LEVEL_COUNT; ++level) {
+      long attempts = getPyramidAttemptCount(level);
+      if (attempts > 0) {
+        JSONObject levelJson = new JSONObject();
+        levelJson.put("attempts", attempts);
+        levelJson.put("hitRate", (double) getPyramidHitCount(level) / attempts);
+        levelJson.put("meanMs", toMillis(getPyramidLatencyNanos(level) / attempts));
+        pyramid.put(PYRAMID_LEVEL_NAMES[level], levelJson);
+      }
+    }
+    if (pyramid.length() > 0) {
+      json.put("pyramid", pyramid);
+    }
+
+    long measured = getSharpnessMeasuredFrameCount();
+    if (measured > 0) {
+      JSONObject sharpness = new JSONObject();
+      sharpness.put("measured", measured);
+      sharpness.put("threshold", getSharpnessThreshold());
+      sharpness.put("meanMs", toMillis(getSharpnessNanos() / measured));
+      json.put("sharpness", sharpness);
+    }
+
+    json.put("queueWait", toJSON(_QueueWait));
+    json.put("detection", toJSON(_Detection));
+    json.put("endToEnd", toJSON(_EndToEnd));
+    return json;
+  }
+
+  /**
+   * Records one run of the given level of the multi-resolution detector, which
+   * started at p_StartNanos.
+   */
+  public void onPyramidLevel(int p_Level, long p_StartNanos, boolean p_Hit) {
+    _PyramidAttempts.incrementAndGet(p_Level);
+    _PyramidNanos.addAndGet(p_Level, System.nanoTime() - p_StartNanos);
+    if (p_Hit) {
+      _PyramidHits.incrementAndGet(p_Level);
+    }
+  }
+
+  static void publish(PipelineMetrics p_Metrics) {
+    _Current = p_Metrics;
+  }
+
+  /**
+   * p_BufferPool is the pool of the camera source, whose counters cover the
+   * whole life of the source rather than this session.
+   */
+  void onCameraStarted(long p_StartupNanos, boolean p_CapabilitiesCached, PreviewBufferPool p_BufferPool) {
+    _StartupNanos = p_StartupNanos;
+    _CapabilitiesCached = p_CapabilitiesCached;
+    _BufferPool = p_BufferPool;
+  }
+
+  void onFrameReceived() {
+    if (_ReceivedFrames.incrementAndGet() == 1) {
+      _FirstFrameNanos = System.nanoTime();
+    }
+  }
+
+  void onFrameOverwritten() {
+    _Overwritten.incrementAndGet();
+  }
+
+  void onBufferNotFound() {
+    _BufferNotFound.incrementAndGet();
+  }
+
+  void onFrameBlurred() {
+    _Blurred.incrementAndGet();
+  }
+
+  void onSharpnessMeasured(long p_MeasureNanos, float p_Threshold) {
+    _SharpnessMeasured.incrementAndGet();
+    _SharpnessNanos.addAndGet(p_MeasureNanos);
+    _SharpnessThreshold = p_Threshold;
+  }
+
+  void onFrameStatic() {
+    _Static.incrementAndGet();
+  }
+
+  void onFramesStarved(long p_Count) {
+    _Starved.addAndGet(p_Count);
+  }
+
+  void onFrameDetected(long p_DetectionNanos, long p_EndToEndNanos) {
+    _DetectedFrames.incrementAndGet();
+    _Detection.record(p_DetectionNanos);
+    _EndToEnd.record(p_EndToEndNanos);
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Private Functions
+  // ----------------------------------------------------------------------------
+  private static JSONObject toJSON(LatencyHistogram p_Histogram) throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put("count", p_Histogram.getCount());
+    json.put("meanMs", toMillis(p_Histogram.getMeanNanos()));
+    json.put("p50Ms", toMillis(p_Histogram.getPercentileNanos(50)));
+    json.put("p90Ms", toMillis(p_Histogram.getPercentileNanos(90)));
+    json.put("p99Ms", toMillis(p_Histogram.getPercentileNanos(99)));
+    json.put("maxMs", toMillis(p_Histogram.getMaxNanos()));
+    return json;
+  }
+
+  private double rate(long p_Frames) {
+    long millis = getSessionMillis();
+    return (millis > 0) ? p_Frames * 1000.0 / millis : 0;
+  }
+
+  private static double toMillis(long p_Nanos) {
+    return p_Nanos / 1000000.0;
+  }
+}
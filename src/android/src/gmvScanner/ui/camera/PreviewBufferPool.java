@@ -0,0 +1,148 @@
+package tl.cordova.google.mobile.vision.scanner.ui.camera;
+
+// ----------------------------------------------------------------------------
+// |  Android Imports
+// ----------------------------------------------------------------------------
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.util.Log;
+
+// ----------------------------------------------------------------------------
+// |  Java Imports
+// ----------------------------------------------------------------------------
+import java.util.ArrayDeque;
+
+// Keeps the preview callback buffers alive between stop() and start() so a
+// pause/resume cycle does not reallocate several megabytes of NV21 arrays. The
+// camera source registers it for memory callbacks on its first start(), so
+// that they can free the buffers while the source is stopped or parked, and
+// unregisters and clears it in release().
+public class PreviewBufferPool implements ComponentCallbacks2 {
+  // ----------------------------------------------------------------------------
+  // | Private Properties
+  // ----------------------------------------------------------------------------
+  private static final String TAG = "PreviewBufferPool";
+
+  private final Object             _Lock        = new Object()     ;
+  private final ArrayDeque<byte[]> _FreeBuffers = new ArrayDeque<>();
+  private int                      _BufferSize                     ;
+  private long                     _Hits                           ;
+  private long                     _Misses                         ;
+
+  // ----------------------------------------------------------------------------
+  // | Public Functions
+  // ----------------------------------------------------------------------------
+
+  /**
+   * Returns a buffer of exactly p_Size bytes, reusing a pooled one when
+   * possible. Asking for a different size than the pooled buffers means the
+   * preview size changed, so the old buffers are dropped.
+   */
+  public byte[] acquire(int p_Size) {
+    synchronized (_Lock) {
+      if (p_Size != _BufferSize) {
+        _FreeBuffers.clear();
+        _BufferSize = p_Size;
+      }
+
+      byte[] buffer = _FreeBuffers.pollFirst();
+      if (buffer != null) {
+        _Hits++;
+        return buffer;
+      }
+
+      _Misses++;
+    }
+
+    return new byte[p_Size];
+  }
+
+  /**
+   * Returns a pooled buffer of exactly p_Size bytes, or null if there is none.
+   * Never allocates, so it is safe to call from the camera callback.
+   */
+  public byte[] acquirePooled(int p_Size) {
+    synchronized (_Lock) {
+      byte[] buffer = (p_Size == _BufferSize) ? _FreeBuffers.pollFirst() : null;
+      if (buffer != null) {
+        _Hits++;
+      }
+      return buffer;
+    }
+  }
+
+  /**
+   * Allocates buffers of p_Size bytes until the pool holds at least p_Count of
+   * them, so that later acquirePooled() calls find one.
+   */
+  public void reserve(int p_Size, int p_Count) {
+    synchronized (_Lock) {
+      if (p_Size != _BufferSize) {
+        _FreeBuffers.clear();
+        _BufferSize = p_Size;
+      }
+      while (_FreeBuffers.size() < p_Count) {
+        _FreeBuffers.addLast(new byte[p_Size]);
+      }
+    }
+  }
+
+  /**
+   * Hands a buffer back to the pool. The caller must make sure nothing (in
+   * particular the camera) still writes into it.
+   */
+  public void recycle(byte[] p_Buffer) {
+    synchronized (_Lock) {
+      if (p_Buffer.length == _BufferSize) {
+        _FreeBuffers.addLast(p_Buffer);
+      }
+    }
+  }
+
+  /**
+   * Drops every pooled buffer. Buffers that are currently handed out are not
+   * affected.
+   */
+  public void clear() {
+    synchronized (_Lock) {
+      _FreeBuffers.clear();
+    }
+  }
+
+  public long getHitCount() {
+    synchronized (_Lock) {
+      return _Hits;
+    }
+  }
+
+  public long getMissCount() {
+    synchronized (_Lock) {
+      return _Misses;
+    }
+  }
+
+  public long getPooledBytes() {
+    synchronized (_Lock) {
+      return (long) _FreeBuffers.size() * _BufferSize;
+    }
+  }
+
+  @Override
+  public void onTrimMemory(int p_Level) {
+    // Pooled buffers only matter while the scanner is being resumed; once the
+    // system asks us to give memory back they are the first thing to go.
+    if (p_Level >= TRIM_MEMORY_RUNNING_LOW) {
+      Log.d(TAG, "Releasing pooled preview buffers, trim level " + p_Level);
+      clear();
+    }
+  }
+
+  @Override
+  public void onLowMemory() {
+    clear();
+  }
+
+  @Override
+  public void onConfigurationChanged(Configuration p_NewConfig) {
+  }
+}
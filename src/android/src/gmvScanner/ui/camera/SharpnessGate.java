@@ -0,0 +1,135 @@
+package tl.cordova.google.mobile.vision.scanner.ui.camera;
+
+// ----------------------------------------------------------------------------
+// |  Java Imports
+// ----------------------------------------------------------------------------
+import java.nio.ByteBuffer;
+
+// Cheap focus measure used to keep motion or focus blurred frames away from the
+// detector. The measure is the mean squared gradient of a subsampled grid over
+// the center of the Y plane. Sharp edges (like the bars of a barcode) make it
+// large, blur flattens it.
+//
+// The threshold adapts to the scene: it is a fraction of a moving average of the
+// recent measures, so it works in dim and bright light alike, and a frame is
+// never skipped more than a few times in a row.
+class SharpnessGate {
+  // ----------------------------------------------------------------------------
+  // | Private Properties
+  // ----------------------------------------------------------------------------
+  private static final int   SAMPLE_STEP            = 4    ;
+  private static final int   WARM_UP_FRAMES         = 10   ;
+  private static final int   MAX_CONSECUTIVE_SKIPS  = 5    ;
+  private static final float AVERAGE_RISE_SMOOTHING = 0.3f ;
+  private static final float AVERAGE_FALL_SMOOTHING = 0.05f;
+
+  private final float _Ratio           ;
+  private float       _Average         ;
+  private float       _Threshold       ;
+  private int         _Frames          ;
+  private int         _ConsecutiveSkips;
+  private long        _MeasureNanos    ;
+
+  SharpnessGate(float p_Ratio) {
+    _Ratio = p_Ratio;
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Public Functions
+  // ----------------------------------------------------------------------------
+
+  /**
+   * Measures the frame and decides whether it is worth running detection on.
+   * Only called from the processing thread.
+   */
+  boolean accept(ByteBuffer p_Data, int p_Width, int p_Height) {
+    long start = System.nanoTime();
+    float sharpness = measure(p_Data, p_Width, p_Height);
+    _MeasureNanos = System.nanoTime() - start;
+
+    // Rise quickly towards sharp frames and decay slowly, so the average tracks
+    // what this scene looks like when it is in focus.
+    if (_Frames == 0) {
+      _Average = sharpness;
+    } else if (sharpness > _Average) {
+      _Average += (sharpness - _Average) * AVERAGE_RISE_SMOOTHING;
+    } else {
+      _Average += (sharpness - _Average) * AVERAGE_FALL_SMOOTHING;
+    }
+    _Threshold = _Average * _Ratio;
+    _Frames++;
+
+    if ((_Frames <= WARM_UP_FRAMES) || (sharpness >= _Threshold) || (_ConsecutiveSkips >= MAX_CONSECUTIVE_SKIPS)) {
+      _ConsecutiveSkips = 0;
+      return true;
+    }
+
+    _ConsecutiveSkips++;
+    return false;
+  }
+
+  /**
+   * Forgets the learned average, e.g. after the zoom changed.
+   */
+  void reset() {
+    _Frames = 0;
+    _ConsecutiveSkips = 0;
+  }
+
+  /**
+   * The sharpness the last measured frame needed to reach.
+   */
+  float getThreshold() {
+    return _Threshold;
+  }
+
+  /**
+   * Time the last accept() spent measuring the frame.
+   */
+  long getMeasureNanos() {
+    return _MeasureNanos;
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Private Functions
+  // ----------------------------------------------------------------------------
+  private static float measure(ByteBuffer p_Data, int p_Width, int p_Height) {
+    // Only the central half of the frame in each direction is sampled.
+    int left = p_Width / 4;
+    int right = p_Width - left - SAMPLE_STEP;
+    int top = p_Height / 4;
+    int bottom = p_Height - top - SAMPLE_STEP;
+
+    long sum = 0;
+    int samples = 0;
+
+    if (p_Data.hasArray()) {
+      byte[] data = p_Data.array();
+      int base = p_Data.arrayOffset();
+      for (int y = top; y < bottom; y += SAMPLE_STEP) {
+        int row = base + y * p_Width;
+        for (int x = left; x < right; x += SAMPLE_STEP) {
+          int center = data[row + x] & 0xFF;
+          int dx = (data[row + x + SAMPLE_STEP] & 0xFF) - center;
+          int dy = (data[row + SAMPLE_STEP * p_Width + x] & 0xFF) - center;
+          sum += dx * dx + dy * dy;
+          samples++;
+        }
+      }
+    } else {
+      int base = p_Data.position();
+      for (int y = top; y < bottom; y += SAMPLE_STEP) {
+        int row = base + y * p_Width;
+        for (int x = left; x < right; x += SAMPLE_STEP) {
+          int center = p_Data.get(row + x) & 0xFF;
+          int dx = (p_Data.get(row + x + SAMPLE_STEP) & 0xFF) - center;
+          int dy = (p_Data.get(row + SAMPLE_STEP * p_Width + x) & 0xFF) - center;
+          sum += dx * dx + dy * dy;
+          samples++;
+        }
+      }
+    }
+
+    return (samples == 0) ? 0 : (float) sum / samples;
+  }
+}
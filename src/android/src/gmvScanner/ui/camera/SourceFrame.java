@@ -0,0 +1,71 @@
+package tl.cordova.google.mobile.vision.scanner.ui.camera;
+
+// ----------------------------------------------------------------------------
+// |  Android Imports
+// ----------------------------------------------------------------------------
+import android.graphics.ImageFormat;
+
+// ----------------------------------------------------------------------------
+// |  Google Imports
+// ----------------------------------------------------------------------------
+import com.google.android.gms.vision.Frame;
+
+// ----------------------------------------------------------------------------
+// |  Java Imports
+// ----------------------------------------------------------------------------
+import java.nio.ByteBuffer;
+
+// A preview frame on its way from a camera backend to the detector. This is the
+// contract between the backends and the frame processor: the processor only
+// looks at the luma plane, the Frame built around it and the bookkeeping fields,
+// and hands the frame back through recycle(), which returns the underlying
+// buffer to whichever backend produced it.
+//
+// A frame is owned by one side at a time, the backend or the frame processor,
+// so its fields are written without locking by whichever side owns it.
+abstract class SourceFrame implements DetectorWorkerPool.Job {
+  // ----------------------------------------------------------------------------
+  // | Properties
+  // ----------------------------------------------------------------------------
+  int  _FrameId     ;
+  long _TimeMillis  ;
+  long _ArrivalNanos;
+
+  private final Frame.Builder _FrameBuilder = new Frame.Builder();
+  private ByteBuffer          _Luma                              ;
+  private Frame               _Frame                             ;
+
+  // ----------------------------------------------------------------------------
+  // | Public Functions
+  // ----------------------------------------------------------------------------
+
+  /**
+   * The luma plane of the frame, p_Width bytes per row, starting at the buffer
+   * position. Frame.Builder mutates and returns the single Frame it wraps, so a
+   * backend that keeps its SourceFrames only needs to call this when the buffer
+   * itself changes.
+   */
+  void setImageData(ByteBuffer p_Luma, int p_Width, int p_Height) {
+    _Luma = p_Luma;
+    _FrameBuilder.setImageData(p_Luma, p_Width, p_Height, ImageFormat.NV21);
+  }
+
+  ByteBuffer getLuma() {
+    return _Luma;
+  }
+
+  Frame buildFrame(int p_Rotation) {
+    _Frame = _FrameBuilder.setId(_FrameId).setTimestampMillis(_TimeMillis).setRotation(p_Rotation).build();
+    return _Frame;
+  }
+
+  @Override
+  public Frame getFrame() {
+    return _Frame;
+  }
+
+  @Override
+  public long getArrivalNanos() {
+    return _ArrivalNanos;
+  }
+}
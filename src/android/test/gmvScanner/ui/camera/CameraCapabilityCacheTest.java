@@ -0,0 +1,131 @@
+package tl.cordova.google.mobile.vision.scanner.ui.camera;
+
+// ----------------------------------------------------------------------------
+// |  Android Imports
+// ----------------------------------------------------------------------------
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.hardware.Camera;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// ----------------------------------------------------------------------------
+// |  Google Imports
+// ----------------------------------------------------------------------------
+import com.google.android.gms.common.images.Size;
+
+// ----------------------------------------------------------------------------
+// |  Test Imports
+// ----------------------------------------------------------------------------
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+// Checks that cached capabilities survive their JSON encoding, and that entries
+// which are corrupt, unusable or written by another build are not used, so that
+// the camera source falls back to getParameters().
+@RunWith(RobolectricTestRunner.class)
+public class CameraCapabilityCacheTest {
+  // ----------------------------------------------------------------------------
+  // | Private Properties
+  // ----------------------------------------------------------------------------
+  private static final String PREFERENCES = "gmvScanner.cameraCapabilities";
+
+  private Camera                _Camera     ;
+  private SharedPreferences     _Preferences;
+  private CameraCapabilityCache _Cache      ;
+
+  @Before
+  public void setUp() {
+    Context context = RuntimeEnvironment.application;
+    _Camera = Camera.open();
+    _Preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    _Preferences.edit().clear().commit();
+    _Cache = new CameraCapabilityCache(context);
+  }
+
+  @After
+  public void tearDown() {
+    // The cache keeps entries in memory for the process, across tests.
+    for (int cameraId = 0; cameraId < 4; ++cameraId) {
+      _Cache.remove(cameraId);
+    }
+    _Camera.release();
+  }
+
+  // ----------------------------------------------------------------------------
+  // | Tests
+  // ----------------------------------------------------------------------------
+  @Test
+  public void roundTripsThroughJSON() throws JSONException {
+    CameraCapabilityCache.Capabilities capabilities = CameraCapabilityCache.read(_Camera.getParameters());
+    capabilities.putSizePair(1600, 1024, new Size(1920, 1080), new Size(3840, 2160));
+    capabilities.putSizePair(1024, 768, new Size(1280, 720), null);
+
+    CameraCapabilityCache.Capabilities copy = CameraCapabilityCache
+        .fromJSON(new JSONObject(CameraCapabilityCache.toJSON(capabilities).toString()));
+
+    assertEquals(capabilities.getFpsRanges().size(), copy.getFpsRanges().size());
+    for (int i = 0; i < capabilities.getFpsRanges().size(); ++i) {
+      assertArrayEquals(capabilities.getFpsRanges().get(i), copy.getFpsRanges().get(i));
+    }
+    assertEquals(capabilities.getFocusModes(), copy.getFocusModes());
+    assertEquals(capabilities.getFlashModes(), copy.getFlashModes());
+    assertArrayEquals(new Size[] { new Size(1920, 1080), new Size(3840, 2160) }, copy.getSizePair(1600, 1024));
+    assertArrayEquals(new Size[] { new Size(1280, 720), null }, copy.getSizePair(1024, 768));
+    assertNull(copy.getSizePair(640, 480));
+  }
+
+  @Test
+  public void queryStoresWhatGetReturns() {
+    Camera.Parameters parameters = _Camera.getParameters();
+    assertNull(_Cache.get(0));
+
+    CameraCapabilityCache.Capabilities queried = _Cache.query(0, parameters);
+
+    assertEquals(CameraCapabilityCache.read(parameters).getFocusModes(), queried.getFocusModes());
+    assertNotNull(_Preferences.getString(CameraCapabilityCache.getKey(0), null));
+    assertEquals(queried.getFocusModes(), _Cache.get(0).getFocusModes());
+  }
+
+  @Test
+  public void dropsCorruptEntry() {
+    _Preferences.edit().putString(CameraCapabilityCache.getKey(1), "{\"fpsRanges\": [[15000").commit();
+
+    assertNull(_Cache.get(1));
+    assertFalse(_Preferences.contains(CameraCapabilityCache.getKey(1)));
+  }
+
+  @Test
+  public void dropsEntryWithoutFpsRanges() throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put("fpsRanges", new JSONArray());
+    json.put("focusModes", new JSONArray());
+    json.put("flashModes", new JSONArray());
+    json.put("sizePairs", new JSONObject());
+    _Preferences.edit().putString(CameraCapabilityCache.getKey(2), json.toString()).commit();
+
+    assertNull(_Cache.get(2));
+    assertFalse(_Preferences.contains(CameraCapabilityCache.getKey(2)));
+  }
+
+  @Test
+  public void ignoresEntryOfAnotherBuild() throws JSONException {
+    CameraCapabilityCache.Capabilities capabilities = CameraCapabilityCache.read(_Camera.getParameters());
+    _Preferences.edit().putString("3|another/build/fingerprint", CameraCapabilityCache.toJSON(capabilities)
+        .toString()).commit();
+
+    assertNull(_Cache.get(3));
+  }
+}
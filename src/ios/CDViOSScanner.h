@@ -19,5 +19,8 @@
 @property (nonatomic, retain) CameraViewController* cameraViewController;
 
 - (void) startScan:(CDVInvokedUrlCommand *)command;
+- (void) stopScan:(CDVInvokedUrlCommand *)command;
+- (void) detectorReady:(CDVInvokedUrlCommand *)command;
+- (void) getScannerMetrics:(CDVInvokedUrlCommand *)command;
 
 @end
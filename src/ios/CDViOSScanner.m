@@ -64,6 +64,41 @@
   
 }
 
+// Closes the scanner if it is open. Scans on iOS end with their first barcode,
+// so this only matters while the user has not scanned anything yet.
+- (void) stopScan:(CDVInvokedUrlCommand *)command
+{
+  dispatch_async(dispatch_get_main_queue(), ^{
+    if(_scannerOpen == YES) {
+      [self.cameraViewController dismissViewControllerAnimated:NO completion:nil];
+      _scannerOpen = NO;
+      
+      NSArray *response = @[@"STOPPED", @"", @""];
+      CDVPluginResult *pluginResult=[CDVPluginResult resultWithStatus:CDVCommandStatus_ERROR messageAsArray:response];
+      
+      [self.commandDelegate sendPluginResult:pluginResult callbackId:_callback];
+    }
+    
+    CDVPluginResult *pluginResult=[CDVPluginResult resultWithStatus:CDVCommandStatus_OK];
+    [self.commandDelegate sendPluginResult:pluginResult callbackId:command.callbackId];
+  });
+}
+
+// The detector ships with the app on iOS, so there is nothing to wait for.
+- (void) detectorReady:(CDVInvokedUrlCommand *)command
+{
+  CDVPluginResult *pluginResult=[CDVPluginResult resultWithStatus:CDVCommandStatus_OK];
+  [self.commandDelegate sendPluginResult:pluginResult callbackId:command.callbackId];
+}
+
+// The iOS scanner keeps no metrics; reports null like Android before the first
+// scan.
+- (void) getScannerMetrics:(CDVInvokedUrlCommand *)command
+{
+  CDVPluginResult *pluginResult=[CDVPluginResult resultWithStatus:CDVCommandStatus_OK];
+  [self.commandDelegate sendPluginResult:pluginResult callbackId:command.callbackId];
+}
+
 -(void)sendResult:(NSString *)value
 {
   [self.cameraViewController dismissViewControllerAnimated:NO completion:nil];
@@ -14,6 +14,18 @@ exports.startScanning = function (p_OnSuccess, p_OnError, p_Settings) {
   return startScanning(p_OnSuccess, p_OnError, p_Settings);
 };
 
+exports.stopScanning = function (p_OnSuccess, p_OnError) {
+  return stopScanning(p_OnSuccess, p_OnError);
+};
+
+exports.detectorReady = function () {
+  return detectorReady();
+};
+
+exports.getScannerMetrics = function (p_OnSuccess, p_OnError) {
+  return getScannerMetrics(p_OnSuccess, p_OnError);
+};
+
 // ----------------------------------------------------------------------------
 // |  Functions
 // ----------------------------------------------------------------------------
@@ -37,6 +49,59 @@ function getDefaultSettings() {
     detectorSize: {
         width : .5,
         height: .7
+    },
+    multiResolution: false,
+    // Detects on this many frames in parallel, at most one per processor. With
+    // tiles, the processors are shared out between the workers, so combining
+    // both does not start more threads than there are processors.
+    detectorWorkers: 1,
+    tiles: {
+        columns: 1,
+        rows   : 1
+    },
+    // Keeps the detector and the camera open for this long after a scan, so that
+    // the next scan with the same settings starts right away. 0 closes them.
+    sessionIdleMillis: 0,
+    // Keeps scanning after the first barcode and calls the success callback for
+    // every new one, until stopScanning() is called or the user closes the
+    // scanner. The error callback is then called with an array starting with
+    // 'STOPPED' or 'USER_CANCELLED'.
+    continuous: false,
+    // A barcode seen again within this many milliseconds of its last sighting is
+    // not reported again.
+    dedupWindowMillis: 2000,
+    // In continuous mode, hands barcodes to the success callback in arrays of
+    // { value, format, timestamp } instead of one by one. A batch is sent once
+    // no barcode arrived for windowMillis, once it holds maxSize barcodes, or
+    // once its first barcode waited for latencyBudgetMillis. A windowMillis of 0
+    // turns batching off.
+    batch: {
+      windowMillis       : 0,
+      maxSize            : 20,
+      latencyBudgetMillis: 250
+    },
+    // Shows the scanner inside the app instead of in a full screen activity, in
+    // the rectangle { x, y, width, height } given in CSS pixels. With
+    // behind: true it is placed under the WebView, and shows through where the
+    // page is transparent. Android only.
+    embedded: null,
+    // Skips frames that are blurrier than this fraction of the recent average
+    // sharpness before they reach the detector, e.g. 0.5. 0 turns it off.
+    sharpnessThreshold: 0,
+    // Skips detection while the scene does not change and held no barcode the
+    // last time it was detected on. threshold is the mean luma change (0 - 255)
+    // that counts as motion, e.g. 4; the scene is detected on again at least
+    // every recheckMillis. A threshold of 0 turns it off. Slows down codes that
+    // are held still but misread at first, so it is off by default.
+    motionSkipping: {
+      threshold    : 0,
+      recheckMillis: 1000
+    },
+    // Lets the preview frame rate follow the detector between minFps and maxFps,
+    // e.g. 7.5 and 30, instead of running at a fixed 15 FPS. 0 turns it off.
+    adaptiveFps: {
+      minFps: 0,
+      maxFps: 0
     }
   }; 
 
@@ -76,11 +141,48 @@ function startScanning(p_OnSuccess, p_OnError, p_Settings) {
   var settingArray = [
     enabledDetectorTypes,
     p_Settings.detectorSize.width,
-    p_Settings.detectorSize.height
+    p_Settings.detectorSize.height,
+    p_Settings.multiResolution === true,
+    p_Settings.detectorWorkers || 1,
+    (p_Settings.tiles && p_Settings.tiles.columns) || 1,
+    (p_Settings.tiles && p_Settings.tiles.rows) || 1,
+    p_Settings.sessionIdleMillis || 0,
+    p_Settings.continuous === true,
+    p_Settings.dedupWindowMillis != null ? p_Settings.dedupWindowMillis : 2000,
+    (p_Settings.batch && p_Settings.batch.windowMillis) || 0,
+    (p_Settings.batch && p_Settings.batch.maxSize) || 20,
+    (p_Settings.batch && p_Settings.batch.latencyBudgetMillis) || 250,
+    p_Settings.embedded || null,
+    p_Settings.sharpnessThreshold || 0,
+    (p_Settings.motionSkipping && p_Settings.motionSkipping.threshold) || 0,
+    (p_Settings.motionSkipping && p_Settings.motionSkipping.recheckMillis) || 1000,
+    (p_Settings.adaptiveFps && p_Settings.adaptiveFps.minFps) || 0,
+    (p_Settings.adaptiveFps && p_Settings.adaptiveFps.maxFps) || 0
   ];
 
-  
+  var batched = p_Settings.continuous === true && settingArray[10] > 0;
+
   exec(p_Result => {
-    p_OnSuccess(p_Result[0]);
+    p_OnSuccess(batched ? p_Result : p_Result[0]);
   }, p_OnError, 'cordova-plugin-google-mobile-vision-barcode-scanner','startScan',settingArray);
-};
\ No newline at end of file
+};
+
+// Ends a continuous scan and closes the scanner.
+function stopScanning(p_OnSuccess, p_OnError) {
+  exec(p_OnSuccess, p_OnError, 'cordova-plugin-google-mobile-vision-barcode-scanner', 'stopScan', []);
+}
+
+// Resolves once the barcode detector the plugin warms up at startup is
+// operational, so that the first scan does not wait for its native libraries.
+// Rejects if they did not become available within a minute.
+function detectorReady() {
+  return new Promise(function (p_Resolve, p_Reject) {
+    exec(p_Resolve, p_Reject, 'cordova-plugin-google-mobile-vision-barcode-scanner', 'detectorReady', []);
+  });
+}
+
+// Latency percentiles and frame counters of the last camera session, or null if
+// the scanner has not been opened yet.
+function getScannerMetrics(p_OnSuccess, p_OnError) {
+  exec(p_OnSuccess, p_OnError, 'cordova-plugin-google-mobile-vision-barcode-scanner', 'getScannerMetrics', []);
+}
\ No newline at end of file